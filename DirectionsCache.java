@@ -0,0 +1,346 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * DirectionsCache keeps decoded Directions API routes, including alternatives, so a route that was opened recently
+ * shows again without a network request or JSON parsing. Routes are keyed by their origin and
+ * destination rounded to {@link #KEY_PRECISION} decimal places, so small GPS jitter between
+ * trips still hits. There are two tiers: an in-memory LRU sized by point count, and a binary
+ * file per route in the cache directory, capped at {@link #MAX_DISK_BYTES} by evicting the
+ * least recently used files. Entries expire after {@link #TTL_MS}.
+ * Disk methods block; call them off the main thread.
+ */
+public class DirectionsCache {
+    /**
+     * Tag for logging purposes.
+     */
+    private static final String TAG = "DirectionsCache";
+
+    /**
+     * Number of decimal places origin and destination are rounded to, about 110 m of latitude.
+     */
+    private static final int KEY_PRECISION = 3;
+
+    /**
+     * Time after which a cached route is no longer used, in milliseconds.
+     */
+    public static final long TTL_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Maximum number of route points held in memory.
+     */
+    private static final int MAX_MEMORY_POINTS = 100_000;
+
+    /**
+     * Maximum total size of the route files, in bytes.
+     */
+    private static final long MAX_DISK_BYTES = 2 * 1024 * 1024L;
+
+    /**
+     * Name of the directory holding the route files, inside the cache directory.
+     */
+    private static final String DIRECTORY_NAME = "directions";
+
+    /**
+     * Version of the route file format.
+     */
+    private static final int FILE_VERSION = 2;
+
+    /**
+     * Suffix of a route file being written, renamed to the route file once complete.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Size of one path point in a route file, in bytes.
+     */
+    private static final int POINT_BYTES = 8;
+
+    /**
+     * The application-wide instance.
+     */
+    private static DirectionsCache instance;
+
+    /**
+     * A decoded route as returned by the Directions API.
+     */
+    public static class Route {
+        /** Latitude of each path point, in units of 1E-5 degrees. */
+        final int[] latitudesE5;
+
+        /** Longitude of each path point, in units of 1E-5 degrees. */
+        final int[] longitudesE5;
+
+        /** Human-readable duration of the route. */
+        final String duration;
+
+        /** Duration of the route, in seconds. */
+        final long durationSeconds;
+
+        /** Length of the route, in meters. */
+        final long distanceMeters;
+
+        /** Short description of the route, such as the main road taken. */
+        final String summary;
+
+        /** Time the route was fetched, in milliseconds since the epoch. */
+        final long fetchedAt;
+
+        /**
+         * Constructs a new Route.
+         *
+         * @param latitudesE5 Latitude of each path point, in units of 1E-5 degrees.
+         * @param longitudesE5 Longitude of each path point, in units of 1E-5 degrees.
+         * @param duration Human-readable duration of the route.
+         * @param durationSeconds Duration of the route, in seconds.
+         * @param distanceMeters Length of the route, in meters.
+         * @param summary Short description of the route.
+         * @param fetchedAt Time the route was fetched, in milliseconds since the epoch.
+         */
+        Route(int[] latitudesE5, int[] longitudesE5, String duration, long durationSeconds,
+              long distanceMeters, String summary, long fetchedAt) {
+            this.latitudesE5 = latitudesE5;
+            this.longitudesE5 = longitudesE5;
+            this.duration = duration;
+            this.durationSeconds = durationSeconds;
+            this.distanceMeters = distanceMeters;
+            this.summary = summary;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * Returns whether the route is older than the cache TTL.
+         *
+         * @param now The current time in milliseconds.
+         * @return True if the route should no longer be used.
+         */
+        boolean isExpired(long now) {
+            return now - fetchedAt > TTL_MS || now < fetchedAt;
+        }
+    }
+
+    /**
+     * Directory holding the route files.
+     */
+    private final File directory;
+
+    /**
+     * In-memory tier, sized by the number of route points.
+     */
+    private final LruCache<String, List<Route>> memory = new LruCache<String, List<Route>>(MAX_MEMORY_POINTS) {
+        @Override
+        protected int sizeOf(String key, List<Route> routes) {
+            int points = 0;
+            for (Route route : routes) {
+                points += route.latitudesE5.length;
+            }
+            return Math.max(1, points);
+        }
+    };
+
+    /**
+     * Constructs a new DirectionsCache.
+     *
+     * @param context The application context.
+     */
+    private DirectionsCache(Context context) {
+        directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    }
+
+    /**
+     * Returns the application-wide DirectionsCache.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared cache.
+     */
+    public static synchronized DirectionsCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new DirectionsCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cache key of a route, with both ends rounded to {@link #KEY_PRECISION} places.
+     *
+     * @param originLat The origin latitude.
+     * @param originLng The origin longitude.
+     * @param destinationLat The destination latitude.
+     * @param destinationLng The destination longitude.
+     * @return The cache key, which is also safe to use as a file name.
+     */
+    public static String keyFor(double originLat, double originLng, double destinationLat, double destinationLng) {
+        String format = "%." + KEY_PRECISION + "f";
+        return String.format(Locale.US, format + "_" + format + "_" + format + "_" + format,
+                originLat, originLng, destinationLat, destinationLng);
+    }
+
+    /**
+     * Returns the cached routes that have not expired, checking memory first and then disk.
+     * Blocks on disk access.
+     *
+     * @param key The cache key from {@link #keyFor}.
+     * @return The routes, recommended route first, or null on a miss.
+     */
+    public List<Route> get(String key) {
+        long now = System.currentTimeMillis();
+        List<Route> routes = memory.get(key);
+        if (routes != null) {
+            if (!routes.get(0).isExpired(now)) {
+                return routes;
+            }
+            memory.remove(key);
+        }
+
+        synchronized (this) {
+            File file = new File(directory, key);
+            if (!file.exists()) {
+                return null;
+            }
+            routes = readRoutes(file);
+            if (routes == null || routes.get(0).isExpired(now)) {
+                file.delete();
+                return null;
+            }
+            file.setLastModified(now);
+        }
+        memory.put(key, routes);
+        return routes;
+    }
+
+    /**
+     * Stores the routes between an origin and destination in both tiers. Blocks on disk access.
+     * The file is written under a temporary name and renamed once complete, so a reader never
+     * sees a partly written route.
+     *
+     * @param key The cache key from {@link #keyFor}.
+     * @param routes The routes to store, recommended route first. Must not be empty.
+     */
+    public void put(String key, List<Route> routes) {
+        routes = Collections.unmodifiableList(new ArrayList<>(routes));
+        memory.put(key, routes);
+        synchronized (this) {
+            if (!directory.exists() && !directory.mkdirs()) {
+                Log.w(TAG, "Could not create cache directory");
+                return;
+            }
+            File file = new File(directory, key);
+            File temp = new File(directory, key + TEMP_SUFFIX);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(routes.size());
+                for (Route route : routes) {
+                    out.writeLong(route.fetchedAt);
+                    out.writeUTF(route.duration != null ? route.duration : "");
+                    out.writeLong(route.durationSeconds);
+                    out.writeLong(route.distanceMeters);
+                    out.writeUTF(route.summary != null ? route.summary : "");
+                    out.writeInt(route.latitudesE5.length);
+                    for (int i = 0; i < route.latitudesE5.length; i++) {
+                        out.writeInt(route.latitudesE5[i]);
+                        out.writeInt(route.longitudesE5[i]);
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Error writing cached route", e);
+                temp.delete();
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                Log.e(TAG, "Error renaming cached route " + key);
+                temp.delete();
+                return;
+            }
+            trimDisk();
+        }
+    }
+
+    /**
+     * Reads a route file. Counts are checked against the file length before arrays are
+     * allocated, so a corrupt file cannot request a huge allocation.
+     *
+     * @return The routes, or null if the file is unreadable, corrupt, empty or has another
+     *         format version.
+     */
+    private static List<Route> readRoutes(File file) {
+        long length = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            int routeCount = in.readInt();
+            if (routeCount <= 0 || routeCount > length) {
+                return null;
+            }
+            List<Route> routes = new ArrayList<>(routeCount);
+            for (int r = 0; r < routeCount; r++) {
+                long fetchedAt = in.readLong();
+                String duration = in.readUTF();
+                long durationSeconds = in.readLong();
+                long distanceMeters = in.readLong();
+                String summary = in.readUTF();
+                int count = in.readInt();
+                if (count < 0 || (long) count * POINT_BYTES > length) {
+                    return null;
+                }
+                int[] latitudesE5 = new int[count];
+                int[] longitudesE5 = new int[count];
+                for (int i = 0; i < count; i++) {
+                    latitudesE5[i] = in.readInt();
+                    longitudesE5[i] = in.readInt();
+                }
+                routes.add(new Route(latitudesE5, longitudesE5, duration, durationSeconds,
+                        distanceMeters, summary, fetchedAt));
+            }
+            return Collections.unmodifiableList(routes);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Error reading cached route " + file.getName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the least recently used route files until the directory fits in {@link #MAX_DISK_BYTES}.
+     */
+    private void trimDisk() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.myapplication;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DirectionsResponseParser extracts the fields the app uses from a Directions API response
+ * while streaming through it, instead of building a tree of the whole document. Every route
+ * is read, so alternatives are supported; per-step polylines are only kept when asked for.
+ * Everything else, including step instructions, is skipped token by token.
+ */
+public final class DirectionsResponseParser {
+    /**
+     * Status of a successful Directions API response.
+     */
+    private static final String STATUS_OK = "OK";
+
+    private DirectionsResponseParser() {
+    }
+
+    /**
+     * The fields of one route of a Directions API response.
+     */
+    public static class ParsedRoute {
+        /** Encoded overview polyline of the route. */
+        String overviewPolyline;
+
+        /** Human-readable duration of the first leg, as shown by the Directions API. */
+        String durationText;
+
+        /** Total duration over all legs, in seconds. */
+        long durationSeconds;
+
+        /** Total distance over all legs, in meters. */
+        long distanceMeters;
+
+        /** Short description of the route, such as the main road taken. */
+        String summary;
+
+        /** Encoded polyline of every step of every leg, or null if steps were not requested. */
+        List<String> stepPolylines;
+    }
+
+    /**
+     * Thrown when the Directions API answers with a status other than OK, such as ZERO_RESULTS
+     * or OVER_QUERY_LIMIT, as opposed to a body that cannot be read.
+     */
+    public static class StatusException extends IOException {
+        /** The status of the response. */
+        final String status;
+
+        /** The error message of the response, or null if it has none. */
+        final String errorMessage;
+
+        /**
+         * Constructs a new StatusException.
+         *
+         * @param status The status of the response.
+         * @param errorMessage The error message of the response, or null.
+         */
+        StatusException(String status, String errorMessage) {
+            super("Directions status " + status + (errorMessage != null ? ": " + errorMessage : ""));
+            this.status = status;
+            this.errorMessage = errorMessage;
+        }
+    }
+
+    /**
+     * Parses a Directions API response.
+     *
+     * @param body The response body, encoded as UTF-8. It is not closed.
+     * @param includeSteps Whether to collect per-step polylines.
+     * @return The routes in response order, the first being the recommended one.
+     * @throws StatusException If the status is not OK.
+     * @throws IOException If the body is not valid JSON.
+     */
+    public static List<ParsedRoute> parse(InputStream body, boolean includeSteps) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        List<ParsedRoute> routes = new ArrayList<>();
+        String status = null;
+        String errorMessage = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "status":
+                    status = reader.nextString();
+                    break;
+                case "error_message":
+                    errorMessage = reader.nextString();
+                    break;
+                case "routes":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        routes.add(readRoute(reader, includeSteps));
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (status != null && !STATUS_OK.equals(status)) {
+            throw new StatusException(status, errorMessage);
+        }
+        return routes;
+    }
+
+    /**
+     * Reads one route object.
+     */
+    private static ParsedRoute readRoute(JsonReader reader, boolean includeSteps) throws IOException {
+        ParsedRoute route = new ParsedRoute();
+        if (includeSteps) {
+            route.stepPolylines = new ArrayList<>();
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "overview_polyline":
+                    route.overviewPolyline = readPoints(reader);
+                    break;
+                case "summary":
+                    route.summary = nextStringOrNull(reader);
+                    break;
+                case "legs":
+                    reader.beginArray();
+                    boolean firstLeg = true;
+                    while (reader.hasNext()) {
+                        readLeg(reader, route, firstLeg);
+                        firstLeg = false;
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return route;
+    }
+
+    /**
+     * Reads one leg, adding its duration and distance to the route.
+     */
+    private static void readLeg(JsonReader reader, ParsedRoute route, boolean firstLeg) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "duration":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if (name.equals("value")) {
+                            route.durationSeconds += reader.nextLong();
+                        } else if (name.equals("text") && firstLeg) {
+                            route.durationText = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "distance":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("value")) {
+                            route.distanceMeters += reader.nextLong();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "steps":
+                    if (route.stepPolylines == null) {
+                        reader.skipValue();
+                        break;
+                    }
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readStep(reader, route.stepPolylines);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads one step, keeping only its polyline.
+     */
+    private static void readStep(JsonReader reader, List<String> stepPolylines) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("polyline")) {
+                String points = readPoints(reader);
+                if (points != null) {
+                    stepPolylines.add(points);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads the points of a polyline object.
+     */
+    private static String readPoints(JsonReader reader) throws IOException {
+        String points = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("points")) {
+                points = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return points;
+    }
+
+    /**
+     * Reads a string value, or consumes a null and returns null.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.skipValue();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,454 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * DirectionsService fetches routes from the Google Maps Directions API for the whole app,
+ * including alternative routes, whose paths are decoded in parallel.
+ * Routes are served from {@link DirectionsCache} when possible, and concurrent requests for the
+ * same route share one fetch, so a route that was prefetched speculatively with
+ * {@link #prefetch(LatLng, LatLng)} is handed to the route screen as soon as it asks for it.
+ * Prefetches are debounced, and a prefetch superseded by a newer destination is cancelled.
+ * Network requests are spaced at least {@link #MIN_REQUEST_INTERVAL_MS} apart, so a batch of
+ * routes does not exceed the Directions API rate limit; cache hits are not delayed.
+ * Public methods must be called on the main thread; callbacks are delivered on the main thread.
+ */
+public class DirectionsService {
+    /**
+     * Tag for logging purposes.
+     */
+    private static final String TAG = "DirectionsService";
+
+    /**
+     * Time a destination must stay selected before its route is prefetched, in milliseconds.
+     */
+    private static final long PREFETCH_DELAY_MS = 600L;
+
+    /**
+     * Minimum time between two Directions API requests, in milliseconds.
+     */
+    private static final long MIN_REQUEST_INTERVAL_MS = 200L;
+
+    /**
+     * Number of threads decoding alternative routes.
+     */
+    private static final int DECODE_THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * The application-wide instance.
+     */
+    private static DirectionsService instance;
+
+    /**
+     * Receives the result of a route request.
+     */
+    public interface RouteCallback {
+        /**
+         * Called with the decoded routes.
+         *
+         * @param routes The routes, the one recommended by the Directions API first.
+         */
+        void onRoutes(List<DirectionsCache.Route> routes);
+
+        /**
+         * Called when the route could not be fetched.
+         *
+         * @param message The error message.
+         */
+        void onError(String message);
+    }
+
+    /**
+     * A fetch in progress, shared by every caller waiting for the same route.
+     */
+    private static class Fetch {
+        /** Callbacks waiting for the route. */
+        final List<RouteCallback> callbacks = new ArrayList<>();
+
+        /** True while nobody but a prefetch is waiting, so a newer destination may cancel it. */
+        boolean speculative;
+
+        /** True once the fetch was cancelled; its result is discarded. */
+        boolean cancelled;
+
+        /** The network request, once one was sent. */
+        Request<?> request;
+    }
+
+    /**
+     * Application context, used to read the API key.
+     */
+    private final Context context;
+
+    /**
+     * Shared Volley RequestQueue of the app-wide HttpClient.
+     */
+    private final RequestQueue requestQueue;
+
+    /**
+     * Two-tier cache of decoded routes.
+     */
+    private final DirectionsCache cache;
+
+    /**
+     * Background executor that reads the cache and hands parsed routes to the decode pool.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Pool decoding the paths of alternative routes in parallel.
+     */
+    private final ExecutorService decodePool = Executors.newFixedThreadPool(DECODE_THREADS);
+
+    /**
+     * Decoder for response polylines, one per decode thread.
+     */
+    private final ThreadLocal<PolylineDecoder> decoders = new ThreadLocal<PolylineDecoder>() {
+        @Override
+        protected PolylineDecoder initialValue() {
+            return new PolylineDecoder();
+        }
+    };
+
+    /**
+     * Handler on the main thread, which owns the fetch bookkeeping.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Fetches in progress by cache key. Only accessed on the main thread.
+     */
+    private final Map<String, Fetch> inFlight = new HashMap<>();
+
+    /**
+     * Cache key of the latest prefetched route, or null. Only accessed on the main thread.
+     */
+    private String prefetchKey;
+
+    /**
+     * The prefetch waiting for its debounce delay, or null. Only accessed on the main thread.
+     */
+    private Runnable pendingPrefetch;
+
+    /**
+     * Earliest time the next network request may be sent, in uptime milliseconds. Only
+     * accessed on the main thread.
+     */
+    private long nextRequestAt;
+
+    /**
+     * Constructs a new DirectionsService.
+     *
+     * @param context The application context.
+     */
+    private DirectionsService(Context context) {
+        this.context = context;
+        this.requestQueue = HttpClient.getInstance(context).getRequestQueue();
+        this.cache = DirectionsCache.getInstance(context);
+    }
+
+    /**
+     * Returns the application-wide DirectionsService.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared service.
+     */
+    public static synchronized DirectionsService getInstance(Context context) {
+        if (instance == null) {
+            instance = new DirectionsService(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Requests the route between two points. Joins a fetch already in progress for the same
+     * route, including a prefetch.
+     *
+     * @param origin The starting point.
+     * @param destination The destination point.
+     * @param callback The callback receiving the route on the main thread.
+     */
+    public void getRoute(LatLng origin, LatLng destination, RouteCallback callback) {
+        String key = keyFor(origin, destination);
+        if (key.equals(prefetchKey) && pendingPrefetch != null) {
+            handler.removeCallbacks(pendingPrefetch);
+            pendingPrefetch = null;
+        }
+        Fetch fetch = inFlight.get(key);
+        if (fetch == null) {
+            fetch = new Fetch();
+            inFlight.put(key, fetch);
+            start(key, origin, destination, fetch);
+        }
+        fetch.speculative = false;
+        fetch.callbacks.add(callback);
+    }
+
+    /**
+     * Stops delivering results to a callback, as when its owner is destroyed. The fetches it
+     * waited for continue and are cached; one that nobody else waits for becomes speculative,
+     * so a newer prefetch may cancel it.
+     *
+     * @param callback The callback passed to {@link #getRoute(LatLng, LatLng, RouteCallback)}.
+     */
+    public void cancel(RouteCallback callback) {
+        for (Fetch fetch : inFlight.values()) {
+            if (fetch.callbacks.remove(callback) && fetch.callbacks.isEmpty()) {
+                fetch.speculative = true;
+            }
+        }
+    }
+
+    /**
+     * Starts fetching the route between two points in the background after a short delay, so
+     * it is cached by the time the route screen asks for it. A newer prefetch replaces a
+     * pending one and cancels an older one that nobody else is waiting for.
+     *
+     * @param origin The starting point.
+     * @param destination The destination point.
+     */
+    public void prefetch(LatLng origin, LatLng destination) {
+        String key = keyFor(origin, destination);
+        if (pendingPrefetch != null) {
+            handler.removeCallbacks(pendingPrefetch);
+            pendingPrefetch = null;
+        }
+        if (prefetchKey != null && !prefetchKey.equals(key)) {
+            Fetch superseded = inFlight.get(prefetchKey);
+            if (superseded != null && superseded.speculative) {
+                Log.d(TAG, "Cancelling superseded prefetch " + prefetchKey);
+                superseded.cancelled = true;
+                if (superseded.request != null) {
+                    superseded.request.cancel();
+                }
+                inFlight.remove(prefetchKey);
+            }
+        }
+        prefetchKey = key;
+        if (inFlight.containsKey(key)) {
+            return;
+        }
+
+        pendingPrefetch = () -> {
+            pendingPrefetch = null;
+            if (!inFlight.containsKey(key)) {
+                Fetch fetch = new Fetch();
+                fetch.speculative = true;
+                inFlight.put(key, fetch);
+                start(key, origin, destination, fetch);
+            }
+        };
+        handler.postDelayed(pendingPrefetch, PREFETCH_DELAY_MS);
+    }
+
+    /**
+     * Returns the cache key of a route.
+     */
+    private static String keyFor(LatLng origin, LatLng destination) {
+        return DirectionsCache.keyFor(origin.latitude, origin.longitude, destination.latitude, destination.longitude);
+    }
+
+    /**
+     * Looks the route up in the cache on the executor and sends a network request on a miss.
+     */
+    private void start(String key, LatLng origin, LatLng destination, Fetch fetch) {
+        String url = buildDirectionsUrl(origin, destination);
+        executor.execute(() -> {
+            List<DirectionsCache.Route> cached = cache.get(key);
+            if (cached != null) {
+                Log.d(TAG, "Using cached route for " + key);
+                handler.post(() -> deliver(key, fetch, cached, null));
+                return;
+            }
+            handler.post(() -> {
+                long now = SystemClock.uptimeMillis();
+                long sendAt = Math.max(now, nextRequestAt);
+                nextRequestAt = sendAt + MIN_REQUEST_INTERVAL_MS;
+                handler.postDelayed(() -> send(key, url, fetch), sendAt - now);
+            });
+        });
+    }
+
+    /**
+     * Sends the network request of a fetch, unless it was cancelled meanwhile.
+     */
+    private void send(String key, String url, Fetch fetch) {
+        if (fetch.cancelled) {
+            return;
+        }
+        fetch.request = requestQueue.add(new DirectionsRequest(url,
+                parsed -> executor.execute(() -> {
+                    List<DirectionsCache.Route> routes = decodeRoutes(parsed);
+                    if (routes == null) {
+                        handler.post(() -> deliver(key, fetch, null, "Error decoding directions"));
+                        return;
+                    }
+                    cache.put(key, routes);
+                    handler.post(() -> deliver(key, fetch, routes, null));
+                }),
+                volleyError -> {
+                    if (volleyError instanceof StatusError) {
+                        Log.w(TAG, volleyError.getMessage());
+                        deliver(key, fetch, null, volleyError.getMessage());
+                    } else if (volleyError instanceof ParseError) {
+                        Log.e(TAG, "Error parsing directions", volleyError);
+                        deliver(key, fetch, null, "Error parsing directions");
+                    } else {
+                        deliver(key, fetch, null, "Error fetching directions");
+                    }
+                }));
+    }
+
+    /**
+     * Completes a fetch and notifies its callbacks, unless it was cancelled.
+     */
+    private void deliver(String key, Fetch fetch, List<DirectionsCache.Route> routes, String error) {
+        if (inFlight.get(key) == fetch) {
+            inFlight.remove(key);
+        }
+        if (fetch.cancelled) {
+            return;
+        }
+        for (RouteCallback callback : fetch.callbacks) {
+            if (routes != null) {
+                callback.onRoutes(routes);
+            } else {
+                callback.onError(error);
+            }
+        }
+    }
+
+    /**
+     * Builds the URL for the Google Maps Directions API request.
+     *
+     * @param origin The starting point.
+     * @param destination The destination point.
+     * @return The URL string for the API request.
+     */
+    private String buildDirectionsUrl(LatLng origin, LatLng destination) {
+        return "https://maps.googleapis.com/maps/api/directions/json?" +
+                "origin=" + origin.latitude + "," + origin.longitude +
+                "&destination=" + destination.latitude + "," + destination.longitude +
+                "&alternatives=true" +
+                "&key=" + context.getString(R.string.my_map_api_key);
+    }
+
+    /**
+     * Decodes the paths of the parsed routes in parallel on the decode pool, skipping routes
+     * without a polyline. Runs on the executor.
+     *
+     * @param parsedRoutes The routes read from the response.
+     * @return The decoded routes in response order, or null if decoding failed.
+     */
+    private List<DirectionsCache.Route> decodeRoutes(List<DirectionsResponseParser.ParsedRoute> parsedRoutes) {
+        long fetchedAt = System.currentTimeMillis();
+        List<Callable<DirectionsCache.Route>> tasks = new ArrayList<>(parsedRoutes.size());
+        for (DirectionsResponseParser.ParsedRoute parsed : parsedRoutes) {
+            if (parsed.overviewPolyline == null) {
+                continue;
+            }
+            tasks.add(() -> {
+                PolylineDecoder decoder = decoders.get();
+                decoder.decode(parsed.overviewPolyline);
+                return new DirectionsCache.Route(decoder.copyLatitudesE5(), decoder.copyLongitudesE5(),
+                        parsed.durationText, parsed.durationSeconds, parsed.distanceMeters, parsed.summary, fetchedAt);
+            });
+        }
+        try {
+            List<DirectionsCache.Route> routes = new ArrayList<>(tasks.size());
+            for (Future<DirectionsCache.Route> future : decodePool.invokeAll(tasks)) {
+                routes.add(future.get());
+            }
+            return routes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error decoding routes", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Error of a response whose Directions API status is not OK. Its message holds the status
+     * and the API's error message.
+     */
+    private static class StatusError extends VolleyError {
+        /**
+         * Constructs a new StatusError.
+         *
+         * @param e The status read from the response.
+         */
+        StatusError(DirectionsResponseParser.StatusException e) {
+            super("Directions request failed: " + e.status + (e.errorMessage != null ? " (" + e.errorMessage + ")" : ""));
+        }
+    }
+
+    /**
+     * Volley request that streams the Directions API response through
+     * {@link DirectionsResponseParser} on the network thread, without building a JSON tree.
+     */
+    private static class DirectionsRequest extends Request<List<DirectionsResponseParser.ParsedRoute>> {
+        /** Listener receiving the parsed routes. */
+        private final Response.Listener<List<DirectionsResponseParser.ParsedRoute>> listener;
+
+        /**
+         * Constructs a new DirectionsRequest.
+         *
+         * @param url The Directions API URL.
+         * @param listener The listener receiving the parsed routes.
+         * @param errorListener The listener receiving errors.
+         */
+        DirectionsRequest(String url, Response.Listener<List<DirectionsResponseParser.ParsedRoute>> listener,
+                          Response.ErrorListener errorListener) {
+            super(Method.GET, url, errorListener);
+            this.listener = listener;
+        }
+
+        @Override
+        protected Response<List<DirectionsResponseParser.ParsedRoute>> parseNetworkResponse(NetworkResponse response) {
+            try (InputStream body = new ByteArrayInputStream(response.data)) {
+                List<DirectionsResponseParser.ParsedRoute> routes = DirectionsResponseParser.parse(body, false);
+                if (routes.isEmpty() || routes.get(0).overviewPolyline == null) {
+                    return Response.error(new ParseError(new IOException("No route in response")));
+                }
+                return Response.success(routes, HttpHeaderParser.parseCacheHeaders(response));
+            } catch (DirectionsResponseParser.StatusException e) {
+                return Response.error(new StatusError(e));
+            } catch (IOException | RuntimeException e) {
+                return Response.error(new ParseError(e));
+            }
+        }
+
+        @Override
+        protected void deliverResponse(List<DirectionsResponseParser.ParsedRoute> routes) {
+            listener.onResponse(routes);
+        }
+    }
+}
\ No newline at end of file
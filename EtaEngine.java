@@ -0,0 +1,466 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * EtaEngine adjusts the Directions API duration of one route for the traffic items along it.
+ * Every active item within {@link RouteIncidentScorer#CORRIDOR_METERS} of the path is mapped to
+ * its nearest route segment and its position along the route, and adds a delay given by the
+ * {@link DelayModel} for its category. Delays are kept per segment in a Fenwick tree, so the
+ * delay ahead of any position is available in O(log n) for progress tracking. Applied items
+ * are also kept ordered by position, so the items ahead of a position are found in O(log n).
+ * Updates are incremental in the route work: the engine remembers which items it has applied,
+ * and on a new snapshot only locates the items that appeared or changed category, using a grid
+ * index over the route, and removes the ones that went away. Finding those still costs one O(n)
+ * pass over the snapshot per update, which builds the map of present items and, for snapshots
+ * with validity windows, the set of active items. Not thread-safe; use from one thread.
+ */
+public class EtaEngine {
+    /**
+     * Approximate length of one degree of latitude, in meters.
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * Cell size of the grid over the route samples, in meters. Route samples are at most one
+     * cell apart, so every item in the corridor is found in the cells around it.
+     */
+    private static final double ROUTE_CELL_METERS = 500;
+
+    /**
+     * Delays caused by each category of traffic item. A delay is a fixed number of seconds plus
+     * a slowdown: the fraction of the base travel time of the route within
+     * {@link #influenceMeters} of the item that is added on top.
+     */
+    public static class DelayModel {
+        /** Fixed delay per category bit position, in seconds. */
+        private final double[] fixedSeconds = new double[TrafficCategory.COUNT];
+
+        /** Slowdown per category bit position, as a fraction of the base travel time. */
+        private final double[] slowdowns = new double[TrafficCategory.COUNT];
+
+        /** Distance before and after an item over which its slowdown applies, in meters. */
+        private double influenceMeters = 500;
+
+        /**
+         * Returns the default model: severe incidents and accidents cost the most, events and
+         * minor incidents little.
+         *
+         * @return A new model with the default delays.
+         */
+        public static DelayModel defaults() {
+            return new DelayModel()
+                    .set(TrafficCategory.INCIDENT_HIGH, 300, 1.0)
+                    .set(TrafficCategory.ACCIDENT, 420, 1.5)
+                    .set(TrafficCategory.INCIDENT_MEDIUM, 120, 0.5)
+                    .set(TrafficCategory.EVENT, 60, 0.3)
+                    .set(TrafficCategory.INCIDENT_LOW, 30, 0.2);
+        }
+
+        /**
+         * Sets the delay of a category.
+         *
+         * @param category A single {@link TrafficCategory} bit.
+         * @param fixedSeconds The fixed delay in seconds.
+         * @param slowdown The slowdown as a fraction of the base travel time near the item.
+         * @return This model.
+         */
+        public DelayModel set(int category, double fixedSeconds, double slowdown) {
+            int bit = Integer.numberOfTrailingZeros(category);
+            this.fixedSeconds[bit] = fixedSeconds;
+            this.slowdowns[bit] = slowdown;
+            return this;
+        }
+
+        /**
+         * Sets the distance before and after an item over which its slowdown applies.
+         *
+         * @param influenceMeters The distance in meters.
+         * @return This model.
+         */
+        public DelayModel setInfluence(double influenceMeters) {
+            this.influenceMeters = influenceMeters;
+            return this;
+        }
+
+        /**
+         * Returns the delay of an item, using the most severe category bit it carries.
+         */
+        double delayOf(int category, double nearbyBaseSeconds) {
+            double worst = 0;
+            for (int bit = 0; bit < TrafficCategory.COUNT; bit++) {
+                if ((category & (1 << bit)) != 0) {
+                    worst = Math.max(worst, fixedSeconds[bit] + slowdowns[bit] * nearbyBaseSeconds);
+                }
+            }
+            return worst;
+        }
+    }
+
+    /**
+     * A traffic item applied to the route.
+     */
+    public static class AppliedItem {
+        /** The traffic item. */
+        final Map<String, Object> item;
+
+        /** The route segment the item was mapped to. */
+        final int segment;
+
+        /** Distance along the route to the point nearest the item, in meters. */
+        final double position;
+
+        /** The delay the item adds, in seconds. */
+        final double delaySeconds;
+
+        /** The {@link TrafficCategory} bits the delay was computed from. */
+        final int category;
+
+        /** Order in which the item was applied, breaking ties between items at one position. */
+        final long sequence;
+
+        AppliedItem(Map<String, Object> item, int segment, double position, double delaySeconds, int category,
+                    long sequence) {
+            this.item = item;
+            this.segment = segment;
+            this.position = position;
+            this.delaySeconds = delaySeconds;
+            this.category = category;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The delay model.
+     */
+    private final DelayModel model;
+
+    /**
+     * Latitude of each path point, in degrees.
+     */
+    private final double[] latitudes;
+
+    /**
+     * Longitude of each path point, in degrees.
+     */
+    private final double[] longitudes;
+
+    /**
+     * Distance along the route to each path point, in meters.
+     */
+    private final double[] cumulativeDistances;
+
+    /**
+     * Duration of the route without delays, in seconds.
+     */
+    private final double baseSeconds;
+
+    /**
+     * Grid over samples of the route, keyed by segment index.
+     */
+    private final SpatialGridIndex routeGrid;
+
+    /**
+     * Fenwick tree of the delay per segment, in seconds.
+     */
+    private final double[] delayTree;
+
+    /**
+     * Items currently applied, by item key.
+     */
+    private final Map<String, AppliedItem> applied = new HashMap<>();
+
+    /**
+     * Delaying items ordered by position along the route.
+     */
+    private final TreeSet<AppliedItem> byPosition = new TreeSet<>((a, b) -> {
+        int byDistance = Double.compare(a.position, b.position);
+        return byDistance != 0 ? byDistance : Long.compare(a.sequence, b.sequence);
+    });
+
+    /**
+     * Sequence number of the next applied item.
+     */
+    private long nextSequence;
+
+    /**
+     * Sum of all applied delays, in seconds.
+     */
+    private double totalDelaySeconds;
+
+    /**
+     * Constructs a new EtaEngine for a route.
+     *
+     * @param latitudesE5 Latitude of each path point, in units of 1E-5 degrees.
+     * @param longitudesE5 Longitude of each path point, in units of 1E-5 degrees.
+     * @param cumulativeDistances Distance along the route to each path point, in meters.
+     * @param baseSeconds Duration of the route without delays, in seconds.
+     * @param model The delay model.
+     */
+    public EtaEngine(int[] latitudesE5, int[] longitudesE5, double[] cumulativeDistances,
+                     double baseSeconds, DelayModel model) {
+        this.model = model;
+        this.cumulativeDistances = cumulativeDistances;
+        this.baseSeconds = baseSeconds;
+        int n = latitudesE5.length;
+        latitudes = new double[n];
+        longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = latitudesE5[i] / 1E5;
+            longitudes[i] = longitudesE5[i] / 1E5;
+        }
+        delayTree = new double[Math.max(1, n - 1) + 1];
+
+        routeGrid = new SpatialGridIndex(ROUTE_CELL_METERS, n > 0 ? latitudes[0] : 0);
+        for (int s = 0; s < n - 1; s++) {
+            double length = cumulativeDistances[s + 1] - cumulativeDistances[s];
+            int steps = Math.max(1, (int) Math.ceil(length / ROUTE_CELL_METERS));
+            for (int k = 0; k <= steps; k++) {
+                double t = (double) k / steps;
+                routeGrid.insert(s, latitudes[s] + (latitudes[s + 1] - latitudes[s]) * t,
+                        longitudes[s] + (longitudes[s + 1] - longitudes[s]) * t);
+            }
+        }
+        if (n == 1) {
+            routeGrid.insert(0, latitudes[0], longitudes[0]);
+        }
+    }
+
+    /**
+     * Applies the active items of a new snapshot. Items already applied are kept as they are,
+     * items no longer present or active are removed, and only new items, or items whose category
+     * changed under the same key, are located on the route. Scans the whole snapshot once, in
+     * O(n), to find them.
+     *
+     * @param snapshot The traffic snapshot.
+     * @return The number of delaying items added or removed.
+     */
+    public int update(TrafficSnapshot snapshot) {
+        ValidityIndex validity = snapshot.getValidityIndex();
+        BitSet active = validity.isStatic() ? null : validity.activeAt(System.currentTimeMillis());
+        Map<String, Integer> present = new HashMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.hasLocation(i) && (active == null || active.get(i))) {
+                present.put(keyOf(snapshot, i), i);
+            }
+        }
+
+        int changes = 0;
+        Iterator<Map.Entry<String, AppliedItem>> iterator = applied.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, AppliedItem> entry = iterator.next();
+            if (!present.containsKey(entry.getKey())) {
+                AppliedItem item = entry.getValue();
+                if (item != null) {
+                    addDelay(item.segment, -item.delaySeconds);
+                    byPosition.remove(item);
+                    changes++;
+                }
+                iterator.remove();
+            }
+        }
+        for (Map.Entry<String, Integer> entry : present.entrySet()) {
+            AppliedItem previous = applied.get(entry.getKey());
+            if (applied.containsKey(entry.getKey())
+                    && (previous == null || previous.category == snapshot.getCategory(entry.getValue()))) {
+                continue;
+            }
+            if (previous != null) {
+                // Same item with another category: remove its old delay before re-applying it.
+                addDelay(previous.segment, -previous.delaySeconds);
+                byPosition.remove(previous);
+                changes++;
+            }
+            AppliedItem item = locate(snapshot, entry.getValue());
+            // Items outside the corridor are remembered too, so they are not located again.
+            applied.put(entry.getKey(), item);
+            if (item != null) {
+                addDelay(item.segment, item.delaySeconds);
+                byPosition.add(item);
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the duration of the route without delays.
+     *
+     * @return The base duration in seconds.
+     */
+    public double getBaseSeconds() {
+        return baseSeconds;
+    }
+
+    /**
+     * Returns the total delay of the applied items.
+     *
+     * @return The delay in seconds.
+     */
+    public double getDelaySeconds() {
+        return Math.max(0, totalDelaySeconds);
+    }
+
+    /**
+     * Returns the adjusted duration of the whole route.
+     *
+     * @return The adjusted duration in seconds.
+     */
+    public double getAdjustedSeconds() {
+        return baseSeconds + getDelaySeconds();
+    }
+
+    /**
+     * Returns the adjusted time remaining from a position on the route: the base time of the
+     * distance left plus the delays of the segments from the position on.
+     *
+     * @param segment The segment the position is on.
+     * @param distanceAlongRoute The distance of the position from the start, in meters.
+     * @return The remaining time in seconds.
+     */
+    public double getRemainingSeconds(int segment, double distanceAlongRoute) {
+        double total = getTotalDistance();
+        double remainingBase = total > 0 ? baseSeconds * Math.max(0, total - distanceAlongRoute) / total : 0;
+        double delayBehind = prefixDelay(segment - 1);
+        return remainingBase + Math.max(0, totalDelaySeconds - delayBehind);
+    }
+
+    /**
+     * Returns the number of applied items that delay the route.
+     *
+     * @return The item count.
+     */
+    public int getDelayingItemCount() {
+        return byPosition.size();
+    }
+
+    /**
+     * Returns the delaying items at or beyond a position on the route, nearest first.
+     *
+     * @param distanceAlongRoute The distance of the position from the start, in meters.
+     * @param limit The maximum number of items to return.
+     * @return The items ahead.
+     */
+    public List<AppliedItem> getItemsAhead(double distanceAlongRoute, int limit) {
+        List<AppliedItem> ahead = new ArrayList<>(Math.min(limit, byPosition.size()));
+        AppliedItem probe = new AppliedItem(null, 0, distanceAlongRoute, 0, 0, Long.MIN_VALUE);
+        for (AppliedItem item : byPosition.tailSet(probe, true)) {
+            if (ahead.size() >= limit) {
+                break;
+            }
+            ahead.add(item);
+        }
+        return ahead;
+    }
+
+    /**
+     * Returns the length of the route.
+     *
+     * @return The length in meters.
+     */
+    public double getTotalDistance() {
+        return cumulativeDistances.length > 0 ? cumulativeDistances[cumulativeDistances.length - 1] : 0;
+    }
+
+    /**
+     * Formats a duration the way the Directions API does, such as "1 hour 5 mins".
+     *
+     * @param seconds The duration in seconds.
+     * @return The formatted duration.
+     */
+    public static String formatDuration(double seconds) {
+        long minutes = Math.max(1, Math.round(seconds / 60));
+        long hours = minutes / 60;
+        minutes %= 60;
+        StringBuilder text = new StringBuilder();
+        if (hours > 0) {
+            text.append(hours).append(hours == 1 ? " hour" : " hours");
+            if (minutes == 0) {
+                return text.toString();
+            }
+            text.append(' ');
+        }
+        return text.append(minutes).append(minutes == 1 ? " min" : " mins").toString();
+    }
+
+    /**
+     * Finds the nearest route segment within the corridor of an item and computes its delay.
+     *
+     * @return The applied item, or null if the item is outside the corridor.
+     */
+    private AppliedItem locate(TrafficSnapshot snapshot, int index) {
+        double itemLat = snapshot.getLatitude(index);
+        double itemLng = snapshot.getLongitude(index);
+        int[] best = {-1};
+        double[] bestDistance = {Double.MAX_VALUE};
+        double[] bestPosition = {0};
+        routeGrid.forEachNear(itemLat, itemLng, s -> {
+            int end = Math.min(s + 1, latitudes.length - 1);
+            double metersPerDegreeLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitudes[s]));
+            double dx = (longitudes[end] - longitudes[s]) * metersPerDegreeLng;
+            double dy = (latitudes[end] - latitudes[s]) * METERS_PER_DEGREE;
+            double px = (itemLng - longitudes[s]) * metersPerDegreeLng;
+            double py = (itemLat - latitudes[s]) * METERS_PER_DEGREE;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            double distance = Math.sqrt(ex * ex + ey * ey);
+            if (distance <= RouteIncidentScorer.CORRIDOR_METERS && distance < bestDistance[0]) {
+                best[0] = s;
+                bestDistance[0] = distance;
+                bestPosition[0] = cumulativeDistances[s] + t * (cumulativeDistances[end] - cumulativeDistances[s]);
+            }
+        });
+        if (best[0] < 0) {
+            return null;
+        }
+
+        double total = getTotalDistance();
+        double from = Math.max(0, bestPosition[0] - model.influenceMeters);
+        double to = Math.min(total, bestPosition[0] + model.influenceMeters);
+        double nearbyBaseSeconds = total > 0 ? baseSeconds * (to - from) / total : 0;
+        int category = snapshot.getCategory(index);
+        return new AppliedItem(snapshot.get(index), best[0], bestPosition[0],
+                model.delayOf(category, nearbyBaseSeconds), category, nextSequence++);
+    }
+
+    /**
+     * Returns a key identifying an item across snapshots: its feed id if it has one, otherwise
+     * its category and location.
+     */
+    private static String keyOf(TrafficSnapshot snapshot, int index) {
+        Object id = snapshot.get(index).get("id");
+        if (id != null) {
+            return id.toString();
+        }
+        return snapshot.getCategory(index) + "@" + snapshot.getLatitude(index) + "," + snapshot.getLongitude(index);
+    }
+
+    /**
+     * Adds a delay to a segment in the Fenwick tree.
+     */
+    private void addDelay(int segment, double seconds) {
+        totalDelaySeconds += seconds;
+        for (int i = segment + 1; i < delayTree.length; i += i & -i) {
+            delayTree[i] += seconds;
+        }
+    }
+
+    /**
+     * Returns the sum of the delays of segments 0 to the given segment, inclusive.
+     */
+    private double prefixDelay(int segment) {
+        double sum = 0;
+        for (int i = Math.min(segment + 1, delayTree.length - 1); i > 0; i -= i & -i) {
+            sum += delayTree[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.myapplication;
+
+import android.util.Log;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FirestoreListenerManager shares Firestore snapshot listeners between subscribers.
+ * Subscriptions are reference-counted per document or query key, so there is at most one
+ * live Firestore registration for each key no matter how often screens subscribe.
+ * All methods must be called on the main thread, where Firestore delivers its events.
+ */
+public class FirestoreListenerManager {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "FirestoreListenerManager";
+
+    /**
+     * The application-wide instance.
+     */
+    private static FirestoreListenerManager instance;
+
+    /**
+     * Live shared registrations keyed by document path or query key.
+     */
+    private final Map<String, SharedRegistration<?>> registrations = new HashMap<>();
+
+    /**
+     * Number of events delivered to subscribers since the manager was created.
+     */
+    private long deliveredEventCount;
+
+    /**
+     * Opens the underlying Firestore registration for a key.
+     *
+     * @param <T> The snapshot type delivered by the registration.
+     */
+    private interface Registrar<T> {
+        /**
+         * Registers the given listener with Firestore.
+         *
+         * @param listener The listener that fans events out to the subscribers.
+         * @return The Firestore registration.
+         */
+        ListenerRegistration register(EventListener<T> listener);
+    }
+
+    /**
+     * One Firestore registration shared by every subscriber of a key.
+     *
+     * @param <T> The snapshot type delivered by the registration.
+     */
+    private class SharedRegistration<T> implements EventListener<T> {
+        /** Key of this registration in {@link #registrations}. */
+        final String key;
+
+        /** Subscribers receiving the events of this registration. */
+        final List<EventListener<T>> subscribers = new ArrayList<>();
+
+        /** The underlying Firestore registration. */
+        ListenerRegistration upstream;
+
+        /** Latest snapshot, replayed to subscribers that join later. */
+        T lastValue;
+
+        SharedRegistration(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onEvent(T value, FirebaseFirestoreException error) {
+            if (value != null) {
+                lastValue = value;
+            }
+            for (EventListener<T> subscriber : new ArrayList<>(subscribers)) {
+                deliveredEventCount++;
+                subscriber.onEvent(value, error);
+            }
+        }
+    }
+
+    /**
+     * Returns the application-wide FirestoreListenerManager.
+     *
+     * @return The shared manager.
+     */
+    public static FirestoreListenerManager getInstance() {
+        if (instance == null) {
+            instance = new FirestoreListenerManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Subscribes to a document. Subscribers of the same document share one Firestore listener.
+     *
+     * @param document The document to listen to.
+     * @param listener The listener receiving the document's snapshots.
+     * @return A registration that removes this subscription.
+     */
+    public ListenerRegistration listen(DocumentReference document, EventListener<DocumentSnapshot> listener) {
+        return subscribe(document.getPath(), listener, document::addSnapshotListener);
+    }
+
+    /**
+     * Subscribes to a query. Subscribers using the same key share one Firestore listener,
+     * so the key must uniquely describe the query's path and constraints.
+     *
+     * @param key A key uniquely describing the query.
+     * @param query The query to listen to.
+     * @param metadataChanges Whether metadata-only changes raise events.
+     * @param listener The listener receiving the query's snapshots.
+     * @return A registration that removes this subscription.
+     */
+    public ListenerRegistration listen(String key, Query query, MetadataChanges metadataChanges,
+                                       EventListener<QuerySnapshot> listener) {
+        return subscribe(key, listener, fanOut -> query.addSnapshotListener(metadataChanges, fanOut));
+    }
+
+    /**
+     * Returns the number of live Firestore registrations held by the manager.
+     *
+     * @return The number of active listeners.
+     */
+    public int getActiveListenerCount() {
+        return registrations.size();
+    }
+
+    /**
+     * Returns the number of events delivered to subscribers so far.
+     *
+     * @return The number of delivered events.
+     */
+    public long getDeliveredEventCount() {
+        return deliveredEventCount;
+    }
+
+    /**
+     * Adds a subscriber to the shared registration of a key, opening the registration if needed.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> ListenerRegistration subscribe(String key, EventListener<T> listener, Registrar<T> registrar) {
+        SharedRegistration<T> shared = (SharedRegistration<T>) registrations.get(key);
+        if (shared == null) {
+            shared = new SharedRegistration<>(key);
+            registrations.put(key, shared);
+            shared.subscribers.add(listener);
+            shared.upstream = registrar.register(shared);
+            Log.d(TAG, "Opened listener for " + key + ", active listeners: " + registrations.size());
+        } else {
+            shared.subscribers.add(listener);
+            if (shared.lastValue != null) {
+                deliveredEventCount++;
+                listener.onEvent(shared.lastValue, null);
+            }
+        }
+
+        SharedRegistration<T> registration = shared;
+        return new ListenerRegistration() {
+            private boolean removed;
+
+            @Override
+            public void remove() {
+                if (removed) {
+                    return;
+                }
+                removed = true;
+                unsubscribe(registration, listener);
+            }
+        };
+    }
+
+    /**
+     * Removes a subscriber and closes the shared registration once it has no subscribers left.
+     */
+    private <T> void unsubscribe(SharedRegistration<T> shared, EventListener<T> listener) {
+        shared.subscribers.remove(listener);
+        if (shared.subscribers.isEmpty() && registrations.get(shared.key) == shared) {
+            registrations.remove(shared.key);
+            if (shared.upstream != null) {
+                shared.upstream.remove();
+            }
+            Log.d(TAG, "Closed listener for " + shared.key + ", active listeners: " + registrations.size()
+                    + ", events delivered: " + deliveredEventCount);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * FusionIndex links user reports to the official NetTravelData items they describe.
+ * Each report is matched to the nearest official item of a compatible category within
+ * {@link #FUSION_RADIUS_METERS}, found through the snapshot's shared
+ * {@link SpatialGridIndex}. Matched reports count as confirmations of the item and raise its
+ * confidence, so the map can show one fused entry instead of a marker for each.
+ * Fused items are copies of the snapshot items; unconfirmed items are served unchanged.
+ */
+public final class FusionIndex {
+    /**
+     * Maximum distance between a user report and the official item it confirms, in meters.
+     * Must not exceed the snapshot's grid cell size.
+     */
+    public static final double FUSION_RADIUS_METERS = 300;
+
+    /**
+     * Key of the number of user reports confirming a fused item.
+     */
+    public static final String KEY_CONFIRMATIONS = "confirmations";
+
+    /**
+     * Key of the combined confidence of a fused item, between 0 and 1.
+     */
+    public static final String KEY_CONFIDENCE = "confidence";
+
+    /**
+     * Key of the ids of the user reports confirming a fused item.
+     */
+    public static final String KEY_CONFIRMED_BY = "confirmedBy";
+
+    /**
+     * Confidence of an official item without confirmations.
+     */
+    private static final double BASE_CONFIDENCE = 0.6;
+
+    /**
+     * Probability that a single user report is right, used to combine confirmations.
+     */
+    private static final double REPORT_RELIABILITY = 0.3;
+
+    /**
+     * The snapshot whose items the reports were matched against.
+     */
+    private final TrafficSnapshot snapshot;
+
+    /**
+     * The reports that were matched.
+     */
+    private final List<Map<String, Object>> reports;
+
+    /**
+     * Snapshot index of the item each report confirms, or -1 if it matched none.
+     */
+    private final int[] matchedItems;
+
+    /**
+     * Fused copies of the confirmed items, keyed by snapshot index.
+     */
+    private final Map<Integer, Map<String, Object>> fusedItems;
+
+    /**
+     * Constructs a new FusionIndex.
+     */
+    private FusionIndex(TrafficSnapshot snapshot, List<Map<String, Object>> reports, int[] matchedItems,
+                        Map<Integer, Map<String, Object>> fusedItems) {
+        this.snapshot = snapshot;
+        this.reports = reports;
+        this.matchedItems = matchedItems;
+        this.fusedItems = fusedItems;
+    }
+
+    /**
+     * Matches user reports against the items of a snapshot.
+     *
+     * @param snapshot The traffic snapshot.
+     * @param reports The user reports, possibly merged by {@link ReportClusterer}.
+     * @return The fusion of the reports and the snapshot.
+     */
+    public static FusionIndex build(TrafficSnapshot snapshot, List<Map<String, Object>> reports) {
+        int[] matchedItems = new int[reports.size()];
+        Map<Integer, List<Object>> confirmedBy = new HashMap<>();
+        Map<Integer, Integer> confirmations = new HashMap<>();
+        SpatialGridIndex grid = snapshot.getSpatialIndex();
+        int[] best = new int[1];
+        float[] bestDistance = new float[1];
+        float[] results = new float[1];
+
+        for (int r = 0; r < reports.size(); r++) {
+            Map<String, Object> report = reports.get(r);
+            matchedItems[r] = -1;
+            int compatible = compatibleCategories(report.get("type"));
+            double latitude = TrafficSnapshot.getDoubleValue(report.get("latitude"));
+            double longitude = TrafficSnapshot.getDoubleValue(report.get("longitude"));
+            if (compatible == TrafficCategory.NONE || (latitude == 0 && longitude == 0)) {
+                continue;
+            }
+
+            best[0] = -1;
+            bestDistance[0] = Float.MAX_VALUE;
+            grid.forEachNear(latitude, longitude, i -> {
+                if ((snapshot.getCategory(i) & compatible) == 0) {
+                    return;
+                }
+                android.location.Location.distanceBetween(latitude, longitude,
+                        snapshot.getLatitude(i), snapshot.getLongitude(i), results);
+                if (results[0] <= FUSION_RADIUS_METERS && results[0] < bestDistance[0]) {
+                    best[0] = i;
+                    bestDistance[0] = results[0];
+                }
+            });
+            if (best[0] < 0) {
+                continue;
+            }
+
+            int item = best[0];
+            matchedItems[r] = item;
+            Integer count = confirmations.get(item);
+            confirmations.put(item, (count != null ? count : 0) + reportCount(report));
+            List<Object> ids = confirmedBy.get(item);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                confirmedBy.put(item, ids);
+            }
+            Object mergedIds = report.get(ReportClusterer.KEY_MERGED_IDS);
+            if (mergedIds instanceof List) {
+                ids.addAll((List<?>) mergedIds);
+            } else {
+                ids.add(report.get(UserReportMarkerLayer.KEY_ID));
+            }
+        }
+
+        Map<Integer, Map<String, Object>> fusedItems = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : confirmations.entrySet()) {
+            int item = entry.getKey();
+            Map<String, Object> fused = new HashMap<>(snapshot.get(item));
+            fused.put(KEY_CONFIRMATIONS, entry.getValue());
+            fused.put(KEY_CONFIDENCE, confidence(entry.getValue()));
+            fused.put(KEY_CONFIRMED_BY, confirmedBy.get(item));
+            fusedItems.put(item, fused);
+        }
+        return new FusionIndex(snapshot, reports, matchedItems, fusedItems);
+    }
+
+    /**
+     * Returns the snapshot the reports were matched against.
+     *
+     * @return The traffic snapshot.
+     */
+    public TrafficSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the item at a snapshot index, fused with its confirmations if it has any.
+     *
+     * @param index The snapshot index.
+     * @return The fused item, or the snapshot item if no report confirms it.
+     */
+    public Map<String, Object> getItem(int index) {
+        Map<String, Object> fused = fusedItems.get(index);
+        return fused != null ? fused : snapshot.get(index);
+    }
+
+    /**
+     * Returns the number of official items confirmed by at least one report.
+     *
+     * @return The number of fused items.
+     */
+    public int getFusedItemCount() {
+        return fusedItems.size();
+    }
+
+    /**
+     * Returns the reports that still need their own marker: those that confirm no item, and
+     * those whose item is hidden by the category mask.
+     *
+     * @param mask The category bitmask of the visible official items.
+     * @return The reports to show separately, in input order.
+     */
+    public List<Map<String, Object>> getSeparateReports(int mask) {
+        List<Map<String, Object>> separate = new ArrayList<>();
+        for (int r = 0; r < matchedItems.length; r++) {
+            int item = matchedItems[r];
+            if (item < 0 || (snapshot.getCategory(item) & mask) == 0) {
+                separate.add(reports.get(r));
+            }
+        }
+        return separate;
+    }
+
+    /**
+     * Returns the official categories a user report type can confirm.
+     */
+    private static int compatibleCategories(Object type) {
+        if (!(type instanceof String)) {
+            return TrafficCategory.NONE;
+        }
+        switch (((String) type).toLowerCase(Locale.ROOT)) {
+            case "traffic incident":
+                return TrafficCategory.INCIDENT_HIGH | TrafficCategory.INCIDENT_MEDIUM | TrafficCategory.INCIDENT_LOW;
+            case "accident":
+                return TrafficCategory.ACCIDENT;
+            case "event":
+                return TrafficCategory.EVENT;
+            default:
+                return TrafficCategory.NONE;
+        }
+    }
+
+    /**
+     * Returns the number of user reports a report stands for, counting merged reports.
+     */
+    private static int reportCount(Map<String, Object> report) {
+        Object count = report.get(ReportClusterer.KEY_REPORT_COUNT);
+        return count instanceof Number ? ((Number) count).intValue() : 1;
+    }
+
+    /**
+     * Combines the official source with independent confirmations: the item is wrong only if
+     * the source and every confirming report are wrong.
+     */
+    private static double confidence(int confirmations) {
+        return 1 - (1 - BASE_CONFIDENCE) * Math.pow(1 - REPORT_RELIABILITY, confirmations);
+    }
+}
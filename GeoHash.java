@@ -0,0 +1,164 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * GeoHash encodes coordinates as base-32 geohash strings and computes the geohash prefixes
+ * covering a map viewport. Reports sharing a prefix lie in the same cell, so a viewport can be
+ * queried as a handful of string ranges on an indexed "geohash" field.
+ */
+public final class GeoHash {
+    /** Number of characters stored with each report, about 5 m x 5 m per cell. */
+    public static final int STORAGE_PRECISION = 9;
+
+    /** Upper bound on the number of cells used to cover a viewport. */
+    private static final int MAX_COVERING_CELLS = 9;
+
+    /** The geohash base-32 alphabet. */
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    /** Character sorting after every geohash character, used as the exclusive end of a prefix range. */
+    public static final String RANGE_END_SUFFIX = "~";
+
+    private GeoHash() {
+    }
+
+    /**
+     * Encodes a coordinate as a geohash.
+     *
+     * @param latitude The latitude in degrees.
+     * @param longitude The longitude in degrees.
+     * @param precision The number of characters of the result.
+     * @return The geohash of the coordinate.
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean evenBit = true;
+        int bit = 0;
+        int value = 0;
+
+        while (hash.length() < precision) {
+            if (evenBit) {
+                double mid = (minLng + maxLng) / 2;
+                if (longitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLng = mid;
+                } else {
+                    value = value << 1;
+                    maxLng = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    value = (value << 1) | 1;
+                    minLat = mid;
+                } else {
+                    value = value << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+
+            if (++bit == 5) {
+                hash.append(BASE32[value]);
+                bit = 0;
+                value = 0;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Returns the height in degrees of a geohash cell of the given precision.
+     *
+     * @param precision The number of geohash characters.
+     * @return The cell height in degrees of latitude.
+     */
+    public static double cellHeight(int precision) {
+        int latBits = (5 * precision) / 2;
+        return 180.0 / (1L << latBits);
+    }
+
+    /**
+     * Returns the width in degrees of a geohash cell of the given precision.
+     *
+     * @param precision The number of geohash characters.
+     * @return The cell width in degrees of longitude.
+     */
+    public static double cellWidth(int precision) {
+        int lngBits = (5 * precision + 1) / 2;
+        return 360.0 / (1L << lngBits);
+    }
+
+    /**
+     * Returns the geohash prefixes of the cells covering a viewport, using the finest precision
+     * that needs no more than a handful of cells. Every report inside the viewport has a geohash
+     * starting with one of the returned prefixes.
+     *
+     * @param bounds The viewport to cover.
+     * @return The sorted, distinct prefixes covering the viewport.
+     */
+    public static List<String> coveringPrefixes(LatLngBounds bounds) {
+        double south = bounds.southwest.latitude;
+        double north = bounds.northeast.latitude;
+        double west = bounds.southwest.longitude;
+        double east = bounds.northeast.longitude;
+        if (east < west) {
+            // The viewport crosses the antimeridian; cover the whole longitude range instead.
+            west = -180;
+            east = 180;
+        }
+
+        for (int precision = STORAGE_PRECISION; precision > 1; precision--) {
+            if (countCells(south, north, cellHeight(precision)) * countCells(west, east, cellWidth(precision))
+                    <= MAX_COVERING_CELLS) {
+                return collectPrefixes(south, north, west, east, precision);
+            }
+        }
+        return collectPrefixes(south, north, west, east, 1);
+    }
+
+    /**
+     * Returns the prefixes of the 32 cells one character finer than a prefix, in sort order.
+     * Together they cover the same range as the prefix.
+     *
+     * @param prefix The prefix to split.
+     * @return The child prefixes.
+     */
+    public static List<String> childPrefixes(String prefix) {
+        List<String> children = new ArrayList<>(BASE32.length);
+        for (char c : BASE32) {
+            children.add(prefix + c);
+        }
+        return children;
+    }
+
+    /**
+     * Returns the number of cells of the given size spanned by the interval.
+     */
+    private static long countCells(double min, double max, double cellSize) {
+        return (long) Math.floor(max / cellSize) - (long) Math.floor(min / cellSize) + 1;
+    }
+
+    /**
+     * Encodes the centre of every cell of the given precision overlapping the viewport.
+     */
+    private static List<String> collectPrefixes(double south, double north, double west, double east, int precision) {
+        double height = cellHeight(precision);
+        double width = cellWidth(precision);
+        TreeSet<String> prefixes = new TreeSet<>();
+        for (double lat = Math.floor(south / height) * height; lat <= north; lat += height) {
+            for (double lng = Math.floor(west / width) * width; lng <= east; lng += width) {
+                double centreLat = Math.max(-90, Math.min(90, lat + height / 2));
+                double centreLng = Math.max(-180, Math.min(180, lng + width / 2));
+                prefixes.add(encode(centreLat, centreLng, precision));
+            }
+        }
+        return new ArrayList<>(prefixes);
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.net.http.HttpResponseCache;
+import android.util.Log;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.android.volley.toolbox.NoCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpClient is the application-wide HTTP layer shared by the traffic feed and the Directions
+ * API. It installs one on-disk HTTP response cache for its direct requests, keeps connections
+ * alive in the platform pool, and uses one TLS context so sessions are resumed instead of
+ * fully renegotiated.
+ * Direct requests through {@link #get(String, Map)} are limited per host and run on the
+ * shared {@link #getExecutor()}. Volley requests go through the single
+ * {@link #getRequestQueue()}, whose dispatcher pool limits them across all hosts together, so
+ * one host may see both limits' worth of requests at once. The keep-alive pool is configured
+ * when the client is created, before it opens its first connection.
+ */
+public class HttpClient {
+    /**
+     * Tag for logging purposes.
+     */
+    private static final String TAG = "HttpClient";
+
+    /**
+     * Name of the response cache directory, inside the cache directory.
+     */
+    private static final String CACHE_DIRECTORY = "http";
+
+    /**
+     * Maximum size of the response cache, in bytes.
+     */
+    private static final long CACHE_SIZE_BYTES = 10 * 1024 * 1024L;
+
+    /**
+     * Maximum number of concurrent direct requests to one host, of concurrent Volley requests,
+     * and of idle connections kept alive per host.
+     */
+    private static final int MAX_REQUESTS_PER_HOST = 4;
+
+    /**
+     * Timeout for establishing a connection, in milliseconds.
+     */
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+
+    /**
+     * Timeout for reading a response, in milliseconds.
+     */
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    /**
+     * Time a TLS session may be resumed after it was established, in seconds.
+     */
+    private static final int SESSION_TIMEOUT_SECONDS = 12 * 60 * 60;
+
+    /**
+     * The application-wide instance.
+     */
+    private static HttpClient instance;
+
+    /**
+     * Socket factory of the shared TLS context, whose session cache enables resumption.
+     */
+    private final SSLSocketFactory sslSocketFactory;
+
+    /**
+     * Permits limiting concurrent direct requests, by host.
+     */
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    /**
+     * The shared Volley queue.
+     */
+    private final RequestQueue requestQueue;
+
+    /**
+     * Executor running direct requests, one thread per permitted request to a host.
+     */
+    private final ExecutorService executor = Executors.newFixedThreadPool(MAX_REQUESTS_PER_HOST);
+
+    /**
+     * Constructs a new HttpClient.
+     *
+     * @param context The application context.
+     */
+    private HttpClient(Context context) {
+        configureConnectionPool();
+        installResponseCache(context);
+        sslSocketFactory = createSslSocketFactory();
+        requestQueue = new RequestQueue(new NoCache(),
+                new BasicNetwork(new HurlStack(null, sslSocketFactory)), MAX_REQUESTS_PER_HOST);
+        requestQueue.start();
+    }
+
+    /**
+     * Returns the application-wide HttpClient.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared client.
+     */
+    public static synchronized HttpClient getInstance(Context context) {
+        if (instance == null) {
+            instance = new HttpClient(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Configures the platform keep-alive pool. The pool reads these properties when the first
+     * connection of the process is opened, so this runs before the client opens any.
+     */
+    private static void configureConnectionPool() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_REQUESTS_PER_HOST));
+    }
+
+    /**
+     * Returns the shared Volley queue. Its responses are not cached: HurlStack disables the
+     * HTTP response cache on its connections and the queue has no Volley cache, so callers
+     * cache what they need themselves, as {@link DirectionsCache} does. Its
+     * {@link #MAX_REQUESTS_PER_HOST} dispatcher threads are shared by every host.
+     *
+     * @return The request queue.
+     */
+    public RequestQueue getRequestQueue() {
+        return requestQueue;
+    }
+
+    /**
+     * Returns the executor on which direct requests run, so callers of
+     * {@link #get(String, Map)} need not start threads of their own.
+     *
+     * @return The shared executor.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Performs a GET request and returns the response body. Blocks while the host already has
+     * {@link #MAX_REQUESTS_PER_HOST} requests in progress, so do not call it on the main thread.
+     * The body is read to the end and the stream closed, which returns the connection to the
+     * keep-alive pool.
+     *
+     * @param url The URL to fetch.
+     * @param headers Request headers to set.
+     * @return The response body, decoded as UTF-8.
+     * @throws IOException If the request fails or the response code is not 200.
+     */
+    public String get(String url, Map<String, String> headers) throws IOException {
+        URL target = new URL(url);
+        Semaphore permits = hostPermits.computeIfAbsent(target.getHost(), host -> new Semaphore(MAX_REQUESTS_PER_HOST));
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + target.getHost(), e);
+        }
+        try {
+            HttpURLConnection connection = open(target);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            int responseCode = connection.getResponseCode();
+            Log.d(TAG, "Response Code: " + responseCode + " for " + target.getHost() + target.getPath());
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                drain(connection.getErrorStream());
+                throw new IOException("HTTP error code: " + responseCode);
+            }
+            return readBody(connection.getInputStream());
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Opens a connection that uses the shared TLS context and response cache.
+     */
+    private HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+        }
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setUseCaches(true);
+        return connection;
+    }
+
+    /**
+     * Reads a response body to the end and closes it.
+     */
+    private static String readBody(InputStream stream) throws IOException {
+        StringBuilder body = new StringBuilder();
+        try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        }
+        return body.toString();
+    }
+
+    /**
+     * Reads and discards an error body, so the connection can still be reused.
+     */
+    private static void drain(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[4096];
+            while (in.read(buffer) != -1) {
+                // Discard
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Error draining response", e);
+        }
+    }
+
+    /**
+     * Installs the shared HTTP response cache, unless one is installed already.
+     */
+    private static void installResponseCache(Context context) {
+        if (HttpResponseCache.getInstalled() != null) {
+            return;
+        }
+        try {
+            HttpResponseCache.install(new File(context.getCacheDir(), CACHE_DIRECTORY), CACHE_SIZE_BYTES);
+        } catch (IOException e) {
+            Log.w(TAG, "HTTP response cache unavailable", e);
+        }
+    }
+
+    /**
+     * Creates the socket factory of the shared TLS context, falling back to the platform default.
+     */
+    private static SSLSocketFactory createSslSocketFactory() {
+        try {
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, null, null);
+            sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+            return sslContext.getSocketFactory();
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "Using the default TLS context", e);
+            return HttpsURLConnection.getDefaultSSLSocketFactory();
+        }
+    }
+}
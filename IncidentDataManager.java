@@ -1,7 +1,7 @@
 package com.example.myapplication;
 
 import android.util.Log;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -17,70 +17,45 @@ public class IncidentDataManager {
     private static final String TAG = "IncidentDataManager";
 
     /**
-     * List to store traffic incident data.
-     * Each Map in the list represents a single incident, with keys for various attributes of the incident.
+     * Snapshot of the latest incident, accident and event data.
+     * Replaced as a whole on every refresh, so readers always see a consistent set of items.
      */
-    private List<Map<String, Object>> incidentData;
-
-    /**
-     * List to store traffic accident data.
-     * Each Map in the list represents a single accident, with keys for various attributes of the accident.
-     */
-    private List<Map<String, Object>> accidentData;
-
-    /**
-     * List to store traffic event data.
-     * Each Map in the list represents a single event, with keys for various attributes of the event.
-     */
-    private List<Map<String, Object>> eventData;
-
-
+    private volatile TrafficSnapshot snapshot;
 
     /**
      * Constructs a new IncidentDataManager.
      *
-     * This constructor initializes empty lists for each type of traffic data:
-     * incidents, accidents, and events. These lists will be populated with
-     * data as it becomes available.
+     * This constructor starts with an empty snapshot, which is replaced
+     * once traffic data becomes available.
      */
     public IncidentDataManager() {
-        incidentData = new ArrayList<>();
-        accidentData = new ArrayList<>();
-        eventData = new ArrayList<>();
-    }
-
-    /**
-     * Sets the incident data and logs the number of items.
-     *
-     * @param data A List of Map objects containing incident data.
-     */
-    public void setIncidentData(List<Map<String, Object>> data) {
-        this.incidentData = data;
-        Log.d(TAG, "Set incident data: " + data.size() + " items");
+        snapshot = TrafficSnapshot.EMPTY;
     }
 
     /**
-     * Sets the accident data and logs the number of items.
+     * Sets the traffic snapshot and logs the number of items.
      *
-     * @param data A List of Map objects containing accident data.
+     * @param snapshot The snapshot holding the incident, accident and event data.
      */
-    public void setAccidentData(List<Map<String, Object>> data) {
-        this.accidentData = data;
-        Log.d(TAG, "Set accident data: " + data.size() + " items");
+    public void setSnapshot(TrafficSnapshot snapshot) {
+        this.snapshot = snapshot;
+        Log.d(TAG, "Set traffic snapshot: " + snapshot.size() + " items");
     }
 
     /**
-     * Sets the event data and logs the number of items.
+     * Returns the latest traffic snapshot.
      *
-     * @param data A List of Map objects containing event data.
+     * @return The snapshot holding the incident, accident and event data.
      */
-    public void setEventData(List<Map<String, Object>> data) {
-        this.eventData = data;
-        Log.d(TAG, "Set event data: " + data.size() + " items");
+    public TrafficSnapshot getSnapshot() {
+        return snapshot;
     }
 
     /**
      * Retrieves traffic items within a specified radius of a given location.
+     * Only the items in the grid cells around the location are checked, using the snapshot's
+     * shared spatial index. The result is a view over the current snapshot in snapshot order,
+     * so no item data is copied.
      *
      * @param latitude The latitude of the center point.
      * @param longitude The longitude of the center point.
@@ -88,70 +63,27 @@ public class IncidentDataManager {
      * @return A List of Map objects representing nearby traffic items.
      */
     public List<Map<String, Object>> getNearbyTrafficItems(double latitude, double longitude, double radius) {
-        List<Map<String, Object>> nearbyItems = new ArrayList<>();
-        List<Map<String, Object>> allTrafficData = new ArrayList<>();
-        allTrafficData.addAll(incidentData);
-        allTrafficData.addAll(accidentData);
-        allTrafficData.addAll(eventData);
-
-        Log.d(TAG, "Total items in allTrafficData: " + allTrafficData.size());
-
-        for (Map<String, Object> item : allTrafficData) {
-            try {
-                double itemLat = 0;
-                double itemLng = 0;
-
-                // Extract latitude and longitude from the item
-                if (item.containsKey("point")) {
-                    Map<String, Object> point = (Map<String, Object>) item.get("point");
-                    if (point != null) {
-                        itemLat = getDoubleValue(point.get("latitude"));
-                        itemLng = getDoubleValue(point.get("longitude"));
-                    }
-                } else if (item.containsKey("latitude") && item.containsKey("longitude")) {
-                    itemLat = getDoubleValue(item.get("latitude"));
-                    itemLng = getDoubleValue(item.get("longitude"));
-                }
-
-                // Skip items with invalid coordinates
-                if (itemLat == 0 && itemLng == 0) {
-                    Log.w(TAG, "Invalid or missing coordinates for item: " + item);
-                    continue;
-                }
-
-                // Calculate distance between the given point and the item
-                float[] results = new float[1];
-                android.location.Location.distanceBetween(latitude, longitude, itemLat, itemLng, results);
-
-                // Add item to nearbyItems if it's within the specified radius
-                if (results[0] <= radius) {
-                    nearbyItems.add(item);
-                    Log.d(TAG, "Added nearby item: " + item);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing item: " + item, e);
+        TrafficSnapshot current = snapshot;
+        int[] nearbyIndices = new int[current.size()];
+        int[] count = {0};
+        float[] results = new float[1];
+
+        Log.d(TAG, "Total items in snapshot: " + current.size());
+
+        // Only items with valid coordinates are in the index
+        current.getSpatialIndex().forEachWithin(latitude, longitude, radius, i -> {
+            // Calculate distance between the given point and the item
+            android.location.Location.distanceBetween(latitude, longitude,
+                    current.getLatitude(i), current.getLongitude(i), results);
+
+            // Add item to nearbyItems if it's within the specified radius
+            if (results[0] <= radius) {
+                nearbyIndices[count[0]++] = i;
             }
-        }
-
-        Log.d(TAG, "Found " + nearbyItems.size() + " nearby items");
-        return nearbyItems;
-    }
+        });
+        Arrays.sort(nearbyIndices, 0, count[0]);
 
-    /**
-     * Helper method to safely convert an Object to a double value.
-     * @param value The object to convert
-     * @return The double value, or 0 if conversion fails
-     */
-    private double getDoubleValue(Object value) {
-        if (value instanceof Number) {
-            return ((Number) value).doubleValue();
-        } else if (value instanceof String) {
-            try {
-                return Double.parseDouble((String) value);
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Error parsing double value: " + value, e);
-            }
-        }
-        return 0;
+        Log.d(TAG, "Found " + count[0] + " nearby items");
+        return new TrafficIndexView(current, nearbyIndices, count[0]);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,266 @@
+package com.example.myapplication;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
+
+/**
+ * LocationStream delivers continuous location updates whose rate adapts to how the user moves
+ * and to the battery. Updates are frequent and precise while driving, sparse while walking or
+ * standing still, and slowed down further when the battery is low and not charging. The speed
+ * is taken from the fix when the provider reports one, and otherwise estimated from the
+ * distance and time since the previous fix, since balanced-power fixes usually carry no speed.
+ * The location request is only replaced when the rate tier changes, not on every fix.
+ * A stream created for navigation skips the adaptation and requests precise, frequent updates
+ * throughout.
+ * Callers must hold the fine location permission before calling {@link #start()}.
+ * All methods and callbacks run on the main thread.
+ */
+public class LocationStream {
+    /**
+     * Tag for logging purposes.
+     */
+    private static final String TAG = "LocationStream";
+
+    /**
+     * Speed below which the user is considered stationary, in meters per second.
+     */
+    private static final float STATIONARY_SPEED = 0.5f;
+
+    /**
+     * Speed below which the user is considered walking, in meters per second.
+     */
+    private static final float WALKING_SPEED = 3f;
+
+    /**
+     * Tier used while driving, the fastest one the adaptation picks.
+     */
+    private static final int DRIVING_TIER = 2;
+
+    /**
+     * Tier of a navigation stream, which never adapts.
+     */
+    private static final int NAVIGATION_TIER = 3;
+
+    /**
+     * Update interval of each tier, from stationary to driving, then navigation, in milliseconds.
+     */
+    private static final long[] TIER_INTERVALS_MS = {30_000L, 10_000L, 3_000L, 2_000L};
+
+    /**
+     * Minimum distance between updates of each tier, in meters.
+     */
+    private static final float[] TIER_MIN_DISTANCES = {20f, 10f, 10f, 5f};
+
+    /**
+     * Battery percentage below which updates are slowed down unless charging.
+     */
+    private static final int LOW_BATTERY_PERCENT = 20;
+
+    /**
+     * Factor applied to the update interval when the battery is low.
+     */
+    private static final int LOW_BATTERY_INTERVAL_FACTOR = 3;
+
+    /**
+     * Receives location updates.
+     */
+    public interface Listener {
+        /**
+         * Called with every new location.
+         *
+         * @param location The new location of the device.
+         */
+        void onLocation(Location location);
+    }
+
+    /**
+     * Application context, used to read the battery state.
+     */
+    private final Context context;
+
+    /**
+     * Client delivering the updates.
+     */
+    private final FusedLocationProviderClient client;
+
+    /**
+     * The listener receiving the updates.
+     */
+    private final Listener listener;
+
+    /**
+     * Whether the stream stays at the navigation tier instead of adapting.
+     */
+    private final boolean navigation;
+
+    /**
+     * Callback receiving updates from the client.
+     */
+    private final LocationCallback callback = new LocationCallback() {
+        @Override
+        public void onLocationResult(@NonNull LocationResult result) {
+            Location location = result.getLastLocation();
+            if (location != null) {
+                listener.onLocation(location);
+                adapt(location);
+            }
+        }
+    };
+
+    /**
+     * The tier of the current request, or -1 while stopped.
+     */
+    private int tier = -1;
+
+    /**
+     * Whether the current request was slowed down for a low battery.
+     */
+    private boolean lowBattery;
+
+    /**
+     * The previous fix, used to estimate the speed when a fix has none, or null.
+     */
+    private Location previousFix;
+
+    /**
+     * Constructs a new adaptive LocationStream.
+     *
+     * @param context Any context, used to access the application context.
+     * @param listener The listener receiving the updates.
+     */
+    public LocationStream(Context context, Listener listener) {
+        this(context, listener, false);
+    }
+
+    /**
+     * Constructs a new LocationStream.
+     *
+     * @param context Any context, used to access the application context.
+     * @param listener The listener receiving the updates.
+     * @param navigation True to request precise, frequent updates throughout, as when following
+     *                   a route, instead of adapting to the speed and battery.
+     */
+    public LocationStream(Context context, Listener listener, boolean navigation) {
+        this.context = context.getApplicationContext();
+        this.client = LocationServices.getFusedLocationProviderClient(context);
+        this.listener = listener;
+        this.navigation = navigation;
+    }
+
+    /**
+     * Starts the updates, at the navigation rate for a navigation stream and otherwise at the
+     * walking rate, which adapts after the first fix.
+     */
+    public void start() {
+        if (tier < 0) {
+            previousFix = null;
+            if (navigation) {
+                request(NAVIGATION_TIER, false);
+            } else {
+                request(1, isBatteryLow());
+            }
+        }
+    }
+
+    /**
+     * Stops the updates.
+     */
+    public void stop() {
+        if (tier >= 0) {
+            client.removeLocationUpdates(callback);
+            tier = -1;
+        }
+    }
+
+    /**
+     * Replaces the request if the speed of a fix or the battery state calls for another rate.
+     */
+    private void adapt(Location location) {
+        if (tier < 0 || navigation) {
+            return;
+        }
+        int next = tier;
+        float speed = speedOf(location);
+        previousFix = location;
+        if (speed >= 0) {
+            next = speed < STATIONARY_SPEED ? 0 : speed < WALKING_SPEED ? 1 : DRIVING_TIER;
+        }
+        boolean low = isBatteryLow();
+        if (next != tier || low != lowBattery) {
+            client.removeLocationUpdates(callback);
+            request(next, low);
+        }
+    }
+
+    /**
+     * Returns the speed of a fix as reported by the provider, or else estimated from the
+     * previous fix. The distance is reduced by the larger accuracy radius of the two fixes, so
+     * the jitter of coarse fixes does not read as movement.
+     *
+     * @return The speed in meters per second, or -1 if it cannot be known.
+     */
+    private float speedOf(Location location) {
+        if (location.hasSpeed()) {
+            return location.getSpeed();
+        }
+        if (previousFix == null) {
+            return -1;
+        }
+        double seconds = (location.getElapsedRealtimeNanos() - previousFix.getElapsedRealtimeNanos()) / 1E9;
+        if (seconds <= 0) {
+            return -1;
+        }
+        float uncertainty = Math.max(location.getAccuracy(), previousFix.getAccuracy());
+        return (float) (Math.max(0, location.distanceTo(previousFix) - uncertainty) / seconds);
+    }
+
+    /**
+     * Requests updates at the rate of a tier.
+     */
+    @SuppressLint("MissingPermission")
+    private void request(int nextTier, boolean low) {
+        tier = nextTier;
+        lowBattery = low;
+        long interval = TIER_INTERVALS_MS[nextTier] * (low ? LOW_BATTERY_INTERVAL_FACTOR : 1);
+        int priority = nextTier >= DRIVING_TIER && !low
+                ? Priority.PRIORITY_HIGH_ACCURACY : Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+        LocationRequest request = new LocationRequest.Builder(priority, interval)
+                .setMinUpdateIntervalMillis(interval / 2)
+                .setMinUpdateDistanceMeters(TIER_MIN_DISTANCES[nextTier])
+                .build();
+        Log.d(TAG, "Requesting updates every " + interval + " ms, tier " + nextTier + (low ? ", low battery" : ""));
+        client.requestLocationUpdates(request, callback, Looper.getMainLooper());
+    }
+
+    /**
+     * Returns whether the battery is low and not charging, from the sticky battery broadcast.
+     */
+    private boolean isBatteryLow() {
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL) {
+            return false;
+        }
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale < LOW_BATTERY_PERCENT;
+    }
+}
@@ -36,6 +36,7 @@ import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.material.navigation.NavigationView;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -79,11 +80,21 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
      */
     private FusedLocationProviderClient fusedLocationProviderClient;
 
+    /**
+     * Continuous location updates, adapting their rate to the user's speed and the battery.
+     */
+    private LocationStream locationStream;
+
     /**
      * List of Marker objects representing traffic incidents on the map.
      */
     private List<Marker> trafficMarkers = new ArrayList<>();
 
+    /**
+     * Marker layer for user-reported incidents, kept separate from the official traffic markers.
+     */
+    private UserReportMarkerLayer userReportLayer;
+
     /**
      * Marker representing the user's current location on the map.
      */
@@ -198,6 +209,7 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
      */
     private void setupLocationServices() {
         fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(this);
+        locationStream = new LocationStream(this, location -> viewModel.setCurrentLocation(location));
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 == PackageManager.PERMISSION_GRANTED) {
             getLastLocation();
@@ -259,14 +271,14 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     private void setupObservers() {
         viewModel.getCurrentLocation().observe(this, this::updateCurrentLocationMarker);
         viewModel.getDestinationLatLng().observe(this, this::updateDestinationMarker);
-        viewModel.getTrafficData().observe(this, this::updateTrafficMarkers);
+        viewModel.getFilteredTrafficData().observe(this, this::updateTrafficMarkers);
         viewModel.getUserPreferences().observe(this, preferences -> {
             // Preferences have changed, no need to do anything here as the ViewModel will handle filtering
         });
         viewModel.getIsUserLoggedIn().observe(this, this::updateUIForUser);
         viewModel.getUserEmail().observe(this, this::updateUserEmail);
         viewModel.getErrorMessage().observe(this, this::showErrorMessage);
-        viewModel.getUserReports().observe(this, this::updateUserReportMarkers);
+        viewModel.getFilteredUserReports().observe(this, this::updateUserReportMarkers);
     }
 
     /**
@@ -283,50 +295,9 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
      * @param reports List of user reports.
      */
     private void updateUserReportMarkers(List<Map<String, Object>> reports) {
-        if (reports == null) {
-            Log.w(TAG, "updateUserReportMarkers: reports list is null");
-            return;
-        }
-
-        for (Map<String, Object> report : reports) {
-            try {
-                String incidentType = (String) report.get("type");
-                String title = (String) report.get("title");
-                String snippet = (String) report.get("snippet");
-
-                Double latitude = getDoubleFromObject(report.get("latitude"));
-                Double longitude = getDoubleFromObject(report.get("longitude"));
-
-                if (latitude == null || longitude == null) {
-                    Log.w(TAG, "Invalid location data in report: " + report);
-                    continue;
-                }
-
-                addReportMarker(incidentType, title, snippet, latitude, longitude);
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing report: " + report, e);
-            }
-        }
-    }
-
-    /**
-     * Converts an object to a Double value.
-     * @param obj The object to convert
-     * @return The Double value, or null if conversion fails
-     */
-    private Double getDoubleFromObject(Object obj) {
-        if (obj instanceof Double) {
-            return (Double) obj;
-        } else if (obj instanceof Long) {
-            return ((Long) obj).doubleValue();
-        } else if (obj instanceof String) {
-            try {
-                return Double.parseDouble((String) obj);
-            } catch (NumberFormatException e) {
-                Log.e(TAG, "Error parsing double from string: " + obj, e);
-            }
+        if (userReportLayer != null) {
+            userReportLayer.update(reports);
         }
-        return null;
     }
 
     /**
@@ -370,7 +341,9 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
 
         LatLng latLng = new LatLng(location.getLatitude(), location.getLongitude());
         if (currentLocationMarker != null) {
-            currentLocationMarker.remove();
+            // Location updates stream in continuously, so move the marker instead of replacing it.
+            currentLocationMarker.setPosition(latLng);
+            return;
         }
         MarkerOptions markerOptions = new MarkerOptions()
                 .position(latLng)
@@ -468,6 +441,11 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 return; // Skip unknown types
         }
 
+        Object confirmations = item.get(FusionIndex.KEY_CONFIRMATIONS);
+        if (confirmations instanceof Number) {
+            typeDescription = typeDescription + " (confirmed by " + confirmations + " reports)";
+        }
+
         MarkerOptions markerOptions = new MarkerOptions()
                 .position(location)
                 .title(shortDescription)
@@ -485,11 +463,11 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
      */
     private void startNavigation() {
         LatLng destination = viewModel.getDestinationLatLng().getValue();
-        Location currentLocation = viewModel.getCurrentLocation().getValue();
-        if (currentLocation != null && destination != null) {
+        LatLng origin = viewModel.getRouteOrigin();
+        if (origin != null && destination != null) {
             Intent intent = new Intent(MainActivity.this, RouteDetailedActivity.class);
-            intent.putExtra("sourceLatitude", currentLocation.getLatitude());
-            intent.putExtra("sourceLongitude", currentLocation.getLongitude());
+            intent.putExtra("sourceLatitude", origin.latitude);
+            intent.putExtra("sourceLongitude", origin.longitude);
             intent.putExtra("destinationLatitude", destination.latitude);
             intent.putExtra("destinationLongitude", destination.longitude);
             startActivity(intent);
@@ -566,6 +544,10 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
             if (type == null) type = "Unknown";
             if (description == null) description = "No description";
             String listItem = type.toUpperCase() + ": " + description;
+            Object confirmations = item.get(FusionIndex.KEY_CONFIRMATIONS);
+            if (confirmations instanceof Number) {
+                listItem += " (confirmed by " + confirmations + " reports)";
+            }
             itemStrings.add(listItem);
             Log.d("TrafficDialog", "Added item: " + listItem);
         }
@@ -664,8 +646,10 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     @Override
     public void onMapReady(@NonNull GoogleMap googleMap) {
         myMap = googleMap;
+        userReportLayer = new UserReportMarkerLayer(myMap);
         setupMapClickListener();
-        updateTrafficMarkers(viewModel.getTrafficData().getValue());
+        updateTrafficMarkers(viewModel.getFilteredTrafficData().getValue());
+        updateUserReportMarkers(viewModel.getFilteredUserReports().getValue());
 
         // Check for location permission
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
@@ -679,10 +663,12 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     }
 
     /**
-     * Sets up a click listener for the map.
+     * Sets up a click listener for the map, and a camera listener that reports the visible region.
      */
     private void setupMapClickListener() {
         myMap.setOnMapClickListener(latLng -> viewModel.setDestinationLatLng(latLng));
+        myMap.setOnCameraIdleListener(() ->
+                viewModel.setViewport(myMap.getProjection().getVisibleRegion().latLngBounds));
     }
 
     /**
@@ -719,6 +705,17 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                             viewModel.setCurrentLocation(location);
                         }
                     });
+            locationStream.start();
+        }
+    }
+
+    /**
+     * Starts the continuous location updates if the fine location permission has been granted.
+     */
+    private void startLocationUpdates() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED) {
+            locationStream.start();
         }
     }
 
@@ -731,56 +728,18 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         if (requestCode == REPORT_REQUEST_CODE && resultCode == RESULT_OK && data != null) {
             String action = data.getStringExtra("action");
             if ("add_marker".equals(action)) {
-                String incidentType = data.getStringExtra("incidentType");
-                String title = data.getStringExtra("title");
-                String snippet = data.getStringExtra("snippet");
-                double latitude = data.getDoubleExtra("latitude", 0);
-                double longitude = data.getDoubleExtra("longitude", 0);
-                addReportMarker(incidentType, title, snippet, latitude, longitude);
+                Map<String, Object> report = new HashMap<>();
+                report.put(UserReportMarkerLayer.KEY_ID, data.getStringExtra("reportId"));
+                report.put("type", data.getStringExtra("incidentType"));
+                report.put("title", data.getStringExtra("title"));
+                report.put("snippet", data.getStringExtra("snippet"));
+                report.put("latitude", data.getDoubleExtra("latitude", 0));
+                report.put("longitude", data.getDoubleExtra("longitude", 0));
+                viewModel.addUserReport(report);
             }
         }
     }
 
-    /**
-     * Adds a marker for a user-reported traffic incident.
-     * @param incidentType The type of incident
-     * @param title The title of the incident
-     * @param snippet Additional information about the incident
-     * @param latitude The latitude of the incident
-     * @param longitude The longitude of the incident
-     */
-    private void addReportMarker(String incidentType, String title, String snippet, double latitude, double longitude) {
-        if (myMap == null) return;
-
-        LatLng location = new LatLng(latitude, longitude);
-        float markerColor;
-
-        switch (incidentType.toLowerCase()) {
-            case "traffic incident":
-                markerColor = BitmapDescriptorFactory.HUE_RED;
-                break;
-            case "accident":
-                markerColor = BitmapDescriptorFactory.HUE_YELLOW;
-                break;
-            case "event":
-                markerColor = BitmapDescriptorFactory.HUE_GREEN;
-                break;
-            default:
-                markerColor = BitmapDescriptorFactory.HUE_AZURE;
-        }
-
-        MarkerOptions markerOptions = new MarkerOptions()
-                .position(location)
-                .title(title)
-                .snippet(snippet)
-                .icon(BitmapDescriptorFactory.defaultMarker(markerColor));
-
-        Marker marker = myMap.addMarker(markerOptions);
-        if (marker != null) {
-            trafficMarkers.add(marker);
-        }
-    }
-
     /**
      * Checks if a network connection is available.
      * @return true if a network connection is available, false otherwise
@@ -822,6 +781,17 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         viewModel.checkUserLoginStatus();
         viewModel.fetchUserPreferences();
         viewModel.fetchTrafficData();
-        viewModel.fetchUserReports();
+        viewModel.startReportSync();
+        startLocationUpdates();
+    }
+
+    /**
+     * Called when the activity is no longer in the foreground.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        viewModel.stopReportSync();
+        locationStream.stop();
     }
 }
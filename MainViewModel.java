@@ -2,20 +2,36 @@ package com.example.myapplication;
 
 import android.app.Application;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MainViewModel is the primary ViewModel for the main activity.
@@ -25,6 +41,24 @@ public class MainViewModel extends AndroidViewModel {
     /** Tag for logging purposes. */
     private static final String TAG = "MainViewModel";
 
+    /** Number of reports fetched per page of a geohash range query. */
+    private static final int REPORT_PAGE_SIZE = 100;
+
+    /** Maximum number of pages fetched per geohash range. */
+    private static final int MAX_REPORT_PAGES = 5;
+
+    /**
+     * Overlap subtracted from the sync watermark when fetching newer reports, so reports
+     * written while a previous fetch was running are not missed.
+     */
+    private static final long SYNC_OVERLAP_MS = 60 * 1000L;
+
+    /** Shortest delay before the derived state is recomputed for expired items, in milliseconds. */
+    private static final long MIN_EXPIRY_DELAY_MS = 1000L;
+
+    /** Distance from the prefetch origin within which navigation starts from it, in meters. */
+    private static final float PREFETCH_ORIGIN_RADIUS_M = 100f;
+
     /** LiveData containing filtered traffic data based on user preferences. */
     private final MutableLiveData<List<Map<String, Object>>> filteredTrafficData = new MutableLiveData<>(new ArrayList<>());
 
@@ -64,16 +98,122 @@ public class MainViewModel extends AndroidViewModel {
     /** Repository for fetching and managing traffic data. */
     private TrafficDataRepository trafficDataRepository;
 
-    /** Listener registration for user preferences in Firestore. */
-    private ListenerRegistration preferencesListener;
+    /** Shared store of the user's preferences, backed by local storage and a Firestore listener. */
+    private final UserPreferencesStore preferencesStore;
 
+    /** Observer that forwards preference changes from the store into this ViewModel. */
+    private final Observer<Map<String, Boolean>> preferencesObserver = this::setUserPreferences;
+
+    /**
+     * Serial executor on which the derived state (filtered traffic data and user reports) is computed.
+     * Inputs are published through the volatile fields below and read only on this executor.
+     */
+    private final ScheduledExecutorService stateExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /** Latest traffic snapshot handed to the state executor. */
+    private volatile TrafficSnapshot trafficInput = TrafficSnapshot.EMPTY;
+
+    /** Latest user reports handed to the state executor. */
+    private volatile List<Map<String, Object>> userReportsInput = new ArrayList<>();
+
+    /** Latest compiled preference bitmask handed to the state executor. */
+    private volatile int preferenceMask = TrafficCategory.ALL;
+
+    /** Incremented on every input change so superseded results can be dropped. */
+    private final AtomicLong inputVersion = new AtomicLong();
+
+    /** True while a recompute task is queued but has not yet read its inputs. */
+    private final AtomicBoolean recomputePending = new AtomicBoolean(false);
+
+    /** Snapshot indices of the traffic data, split by category bit. Only accessed on the state executor. */
+    private int[][] trafficPartitions = TrafficCategory.partition(TrafficSnapshot.EMPTY);
+
+    /** The snapshot that {@link #trafficPartitions} was built from. Only accessed on the state executor. */
+    private TrafficSnapshot partitionedTraffic = TrafficSnapshot.EMPTY;
+
+    /** User reports with nearby duplicates merged into aggregates. Only accessed on the state executor. */
+    private List<Map<String, Object>> mergedUserReports = new ArrayList<>();
+
+    /** The report list that {@link #mergedUserReports} was built from. Only accessed on the state executor. */
+    private List<Map<String, Object>> mergedReportSource;
+
+    /** Fusion of the merged user reports with the traffic snapshot. Only accessed on the state executor. */
+    private FusionIndex fusion;
+
+    /** The active report list that {@link #fusion} was built from. Only accessed on the state executor. */
+    private List<Map<String, Object>> fusedReportSource;
+
+    /** Validity intervals of the merged user reports. Only accessed on the state executor. */
+    private ValidityIndex reportValidity = ValidityIndex.EMPTY;
+
+    /** The merged report list that {@link #reportValidity} was built from. Only accessed on the state executor. */
+    private List<Map<String, Object>> validitySource;
+
+    /** Positions of the merged reports that were active at the last recompute. Only accessed on the state executor. */
+    private BitSet activeReportBits;
+
+    /** The merged reports that were active at the last recompute. Only accessed on the state executor. */
+    private List<Map<String, Object>> activeReports = new ArrayList<>();
+
+    /** Timer recomputing the derived state when the next item starts or expires. Only accessed on the state executor. */
+    private ScheduledFuture<?> expiryTimer;
+
+    /** Latest fusion, read by nearby queries on the main thread. */
+    private volatile FusionIndex latestFusion;
+
+    /** Incremental nearby query that follows the current location. Only accessed on the main thread. */
+    private final NearbyTrafficEngine nearbyEngine = new NearbyTrafficEngine();
+
+    /** Radius of the last nearby query in meters, kept current as the location streams in, or 0. Only accessed on the main thread. */
+    private double nearbyRadius;
+
+    /** Geohash prefixes covering the current map viewport, or null until the map reports one. */
+    private List<String> viewportPrefixes;
+
+    /** Incremented on every report fetch so results of superseded fetches are dropped. */
+    private int reportFetchGeneration;
+
+    /** Live sync of the user reports inside the viewport, used while the map is in the foreground. */
+    private final UserReportSync reportSync;
+
+    /** Whether user reports are kept current by the live sync instead of one-off fetches. */
+    private boolean liveReportSync;
+
+    /** On-device store of user reports, read first whenever the viewport changes. */
+    private final ReportDatabase reportDatabase;
+
+    /** Application-wide directions service, used to prefetch the route to a selected destination. */
+    private final DirectionsService directionsService;
+
+    /** Origin of the latest route prefetch, or null if none was started. */
+    private LatLng prefetchOrigin;
+
+    /** Handler on the main thread, used to return results read from the report database. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Number of report sets published so far, used to drop local reads overtaken by newer data. */
+    private long reportPublishCount;
+
+    /**
+     * Receives the end of a paged report query.
+     */
+    private interface RangeCallback {
+        /**
+         * Called once the last page of the query has been handled.
+         *
+         * @param complete True if every page was read, false if the query failed or hit the page limit.
+         * @param limitCursor The last document read if the page limit was hit, otherwise null.
+         */
+        void onDone(boolean complete, DocumentSnapshot limitCursor);
+    }
 
     /**
      * Constructs a new MainViewModel.
      *
      * This constructor initializes the ViewModel with the necessary Firebase instances,
      * sets up the TrafficDataRepository, and performs initial user login status check.
-     * It also sets up a listener for user preferences in Firestore.
+     * It also starts observing the shared UserPreferencesStore, whose cached preferences
+     * are applied immediately.
      *
      * @param application The application instance, used to access application-wide resources
      *                    and to initialize the TrafficDataRepository.
@@ -84,8 +224,14 @@ public class MainViewModel extends AndroidViewModel {
         db = FirebaseFirestore.getInstance();
         IncidentDataManager incidentDataManager = new IncidentDataManager();
         trafficDataRepository = new TrafficDataRepository(application, incidentDataManager);
+        preferencesStore = UserPreferencesStore.getInstance(application);
+        preferencesStore.getPreferences().observeForever(preferencesObserver);
+        reportSync = new UserReportSync(application, this::publishUserReports);
+        reportDatabase = ReportDatabase.getInstance(application);
+        directionsService = DirectionsService.getInstance(application);
+        long now = System.currentTimeMillis();
+        reportDatabase.execute(() -> reportDatabase.deleteExpired(now));
         checkUserLoginStatus();
-        setupPreferencesListener();
     }
 
 
@@ -175,59 +321,71 @@ public class MainViewModel extends AndroidViewModel {
      */
     public void setCurrentLocation(Location location) {
         currentLocation.setValue(location);
+        TrafficSnapshot snapshot = trafficDataRepository.getSnapshot();
+        if (nearbyRadius > 0 && snapshot != null) {
+            // Cheap unless the user moved past the engine's hysteresis distance.
+            nearbyEngine.query(snapshot, location.getLatitude(), location.getLongitude(), nearbyRadius);
+        }
     }
 
     /**
-     * Sets the destination LatLng.
+     * Sets the destination LatLng and, if the current location is known, starts prefetching
+     * the route to it so the route screen can open with the path already decoded.
      *
      * @param latLng The LatLng to set as destination.
      */
 
     public void setDestinationLatLng(LatLng latLng) {
         destinationLatLng.setValue(latLng);
+        Location location = currentLocation.getValue();
+        if (latLng != null && location != null) {
+            prefetchOrigin = new LatLng(location.getLatitude(), location.getLongitude());
+            directionsService.prefetch(prefetchOrigin, latLng);
+        } else {
+            prefetchOrigin = null;
+        }
     }
-    /**
-     * Sets up a listener for user preferences in Firestore.
-     * This method listens for changes in the user's preferences document and updates the app accordingly.
-     */
-    private void setupPreferencesListener() {
-        FirebaseUser user = mAuth.getCurrentUser();
-        if (user != null) {
-            preferencesListener = db.collection("Users").document(user.getUid())
-                    .addSnapshotListener((documentSnapshot, e) -> {
-                        if (e != null) {
-                            Log.w(TAG, "Listen failed.", e);
-                            return;
-                        }
 
-                        if (documentSnapshot != null && documentSnapshot.exists()) {
-                            Map<String, Boolean> prefs = new HashMap<>();
-                            prefs.put("showIncidentHigh", documentSnapshot.getBoolean("showIncidentHigh") != null ? documentSnapshot.getBoolean("showIncidentHigh") : true);
-                            prefs.put("showIncidentMedium", documentSnapshot.getBoolean("showIncidentMedium") != null ? documentSnapshot.getBoolean("showIncidentMedium") : true);
-                            prefs.put("showIncidentLow", documentSnapshot.getBoolean("showIncidentLow") != null ? documentSnapshot.getBoolean("showIncidentLow") : true);
-                            prefs.put("showEvent", documentSnapshot.getBoolean("showEvent") != null ? documentSnapshot.getBoolean("showEvent") : true);
-                            prefs.put("showAccident", documentSnapshot.getBoolean("showAccident") != null ? documentSnapshot.getBoolean("showAccident") : true);
-                            prefs.put("showUserReports", documentSnapshot.getBoolean("showUserReports") != null ? documentSnapshot.getBoolean("showUserReports") : true);
-                            userPreferences.setValue(prefs);
-                            applyUserPreferences();
-                        }
-                    });
+    /**
+     * Returns the start point for navigating to the destination. While the user is still near
+     * the point the route was prefetched from, that point is returned, so the route screen
+     * asks for the prefetched route rather than one keyed by a slightly moved location.
+     *
+     * @return The start point, or null if the current location is not known.
+     */
+    public LatLng getRouteOrigin() {
+        Location location = currentLocation.getValue();
+        if (location == null) {
+            return null;
         }
+        if (prefetchOrigin != null) {
+            float[] distance = new float[1];
+            Location.distanceBetween(prefetchOrigin.latitude, prefetchOrigin.longitude,
+                    location.getLatitude(), location.getLongitude(), distance);
+            if (distance[0] <= PREFETCH_ORIGIN_RADIUS_M) {
+                return prefetchOrigin;
+            }
+        }
+        return new LatLng(location.getLatitude(), location.getLongitude());
     }
-
     /**
-     * Adds a new user report to the existing reports.
+     * Adds a new user report to the existing reports. A report without a timestamp has just
+     * been submitted, so it is stamped with the current time and expires like the stored
+     * reports instead of being treated as new on every recompute.
      *
      * @param report The new report to add
      */
     public void addUserReport(Map<String, Object> report) {
-        List<Map<String, Object>> currentReports = userReports.getValue();
-        if (currentReports == null) {
-            currentReports = new ArrayList<>();
+        if (!(report.get("timestamp") instanceof Number)) {
+            report.put("timestamp", System.currentTimeMillis());
         }
-        currentReports.add(report);
-        userReports.setValue(currentReports);
-        applyUserPreferences();
+        List<Map<String, Object>> currentReports = userReports.getValue();
+        List<Map<String, Object>> updatedReports = currentReports != null
+                ? new ArrayList<>(currentReports) : new ArrayList<>();
+        updatedReports.add(report);
+        userReports.setValue(updatedReports);
+        userReportsInput = updatedReports;
+        requestRecompute();
     }
 
     /**
@@ -239,7 +397,8 @@ public class MainViewModel extends AndroidViewModel {
             public void onDataFetched(List<Map<String, Object>> data) {
                 Log.d(TAG, "Fetched traffic data: " + data.size() + " items");
                 trafficData.postValue(data);
-                applyUserPreferences();
+                trafficInput = trafficDataRepository.getSnapshot();
+                requestRecompute();
             }
 
             @Override
@@ -251,26 +410,351 @@ public class MainViewModel extends AndroidViewModel {
     }
 
     /**
-     * Fetches user reports from Firestore.
+     * Fetches the recent user reports inside the current map viewport from Firestore into the
+     * report database, then publishes the viewport's reports from the database.
+     * This one-shot fetch only runs while the live sync is stopped, that is while the activity
+     * is paused or before it first resumes; it returns at once while the live sync started in
+     * {@link #startReportSync} keeps the reports current, which is the normal flow.
+     * Geohash ranges that were never fetched, or not within the report window, are queried in
+     * full for the reports submitted within the window, each paginated with cursors. Ranges
+     * fetched before are brought up to date with one query per range for the reports written
+     * in it after its watermark. Both need a composite index, on geohash with timestamp and
+     * on geohash with updatedAt.
      */
     public void fetchUserReports() {
-        db.collection("Reports")
-                .get()
+        if (liveReportSync) {
+            Log.d(TAG, "fetchUserReports: Live sync is running, nothing to fetch");
+            return;
+        }
+        List<String> prefixes = viewportPrefixes;
+        if (prefixes == null) {
+            Log.d(TAG, "fetchUserReports: Viewport not known yet");
+            return;
+        }
+
+        int generation = ++reportFetchGeneration;
+        long cutoff = System.currentTimeMillis() - ReportDatabase.REPORT_WINDOW_MS;
+        reportDatabase.execute(() -> {
+            // Ranges not synced within the report window are fetched in full again.
+            reportDatabase.forgetRangesSyncedBefore(cutoff);
+            Map<String, Long> syncedRanges = reportDatabase.getSyncedRanges();
+            mainHandler.post(() -> {
+                if (generation == reportFetchGeneration) {
+                    fetchReportChanges(prefixes, syncedRanges, generation, cutoff);
+                }
+            });
+        });
+    }
+
+    /**
+     * Queries the reports missing from the report database for the given viewport ranges,
+     * stores them and publishes the viewport's reports.
+     *
+     * @param prefixes The geohash prefixes covering the viewport.
+     * @param syncedRanges The watermark of each prefix whose reports have been fetched in full.
+     * @param generation The fetch generation.
+     * @param cutoff The oldest report timestamp to keep, in milliseconds.
+     */
+    private void fetchReportChanges(List<String> prefixes, Map<String, Long> syncedRanges,
+                                    int generation, long cutoff) {
+        long startedAt = System.currentTimeMillis();
+        List<String> staleRanges = new ArrayList<>();
+        Map<String, Long> deltaRanges = new LinkedHashMap<>();
+        for (String prefix : prefixes) {
+            long watermark = syncedWatermark(prefix, syncedRanges);
+            if (watermark < cutoff) {
+                staleRanges.add(prefix);
+            } else {
+                deltaRanges.put(prefix, watermark);
+            }
+        }
+
+        Map<String, Map<String, Object>> rangeReports = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> deltaReports = new LinkedHashMap<>();
+        List<String> completedRanges = new ArrayList<>();
+        Map<String, Long> deltaWatermarks = new HashMap<>();
+        int[] pendingQueries = {staleRanges.size() + deltaRanges.size()};
+        Runnable onQueryDone = () -> {
+            if (--pendingQueries[0] > 0) {
+                return;
+            }
+            // Ranges read in full are current up to the latest write read, or the start of the
+            // fetch if they held no reports at all.
+            long rangeWatermark = maxUpdatedAt(rangeReports.values());
+            Map<String, Long> watermarks = new HashMap<>(deltaWatermarks);
+            for (String prefix : completedRanges) {
+                watermarks.put(prefix, rangeWatermark != 0 ? rangeWatermark : startedAt);
+            }
+            storeAndPublishReports(prefixes, rangeReports, deltaReports, watermarks, generation);
+            Log.d(TAG, "Fetched user reports: " + staleRanges.size() + " full ranges, "
+                    + deltaReports.size() + " newer reports in " + deltaRanges.size() + " ranges");
+        };
+        for (String prefix : staleRanges) {
+            fetchReportRange(prefix, generation, cutoff, rangeReports, completedRanges,
+                    (complete, limitCursor) -> onQueryDone.run());
+        }
+        for (Map.Entry<String, Long> entry : deltaRanges.entrySet()) {
+            String prefix = entry.getKey();
+            long watermark = entry.getValue();
+            Map<String, Map<String, Object>> rangeDelta = new LinkedHashMap<>();
+            Query query = db.collection("Reports")
+                    .whereGreaterThanOrEqualTo("geohash", prefix)
+                    .whereLessThan("geohash", prefix + GeoHash.RANGE_END_SUFFIX)
+                    .whereGreaterThan(ReportDatabase.KEY_UPDATED_AT, new Date(watermark - SYNC_OVERLAP_MS))
+                    .orderBy(ReportDatabase.KEY_UPDATED_AT)
+                    .limit(REPORT_PAGE_SIZE);
+            fetchReportPage(query, 1, generation, cutoff, rangeDelta, (complete, limitCursor) -> {
+                deltaReports.putAll(rangeDelta);
+                // Pages are ordered by write time, so a delta cut off at the page limit is still
+                // current up to its last report; only a failed query leaves the watermark.
+                if (complete || limitCursor != null) {
+                    deltaWatermarks.put(prefix, Math.max(watermark, maxUpdatedAt(rangeDelta.values())));
+                }
+                onQueryDone.run();
+            });
+        }
+    }
+
+    /**
+     * Fetches every report of a geohash range submitted at or after the cutoff, which Firestore
+     * filters on the server together with the range. When the range holds more reports than the page
+     * limit allows, the rest of it is split into the 32 finer ranges, each fetched with its own
+     * page limit, so a dense viewport is fetched in full rather than cut off at the high end of
+     * its geohash range. Finer ranges that sort entirely before the last report read were
+     * covered by the pages already read. Ranges are added to the completed list once every
+     * report in them was read.
+     *
+     * @param prefix The geohash prefix of the range.
+     * @param generation The fetch generation.
+     * @param cutoff The oldest report timestamp to keep, in milliseconds.
+     * @param collected The reports collected so far, keyed by document id.
+     * @param completedRanges The ranges read in full so far.
+     * @param onRangeDone Called once the whole range has been handled.
+     */
+    private void fetchReportRange(String prefix, int generation, long cutoff, Map<String, Map<String, Object>> collected,
+                                  List<String> completedRanges, RangeCallback onRangeDone) {
+        Query query = db.collection("Reports")
+                .whereGreaterThanOrEqualTo("geohash", prefix)
+                .whereLessThan("geohash", prefix + GeoHash.RANGE_END_SUFFIX)
+                .whereGreaterThanOrEqualTo("timestamp", cutoff)
+                .orderBy("geohash")
+                .limit(REPORT_PAGE_SIZE);
+        fetchReportPage(query, 1, generation, cutoff, collected, (complete, limitCursor) -> {
+            String reached = limitCursor != null ? limitCursor.getString("geohash") : null;
+            if (reached == null || prefix.length() >= GeoHash.STORAGE_PRECISION) {
+                if (complete) {
+                    completedRanges.add(prefix);
+                } else if (limitCursor != null) {
+                    Log.w(TAG, "User reports of range " + prefix + " truncated at "
+                            + MAX_REPORT_PAGES * REPORT_PAGE_SIZE + " reports");
+                }
+                onRangeDone.onDone(complete, null);
+                return;
+            }
+
+            List<String> remaining = new ArrayList<>();
+            for (String child : GeoHash.childPrefixes(prefix)) {
+                if (child.compareTo(reached) < 0 && !reached.startsWith(child)) {
+                    completedRanges.add(child);
+                } else {
+                    remaining.add(child);
+                }
+            }
+            Log.d(TAG, "Range " + prefix + " hit the page limit; fetching " + remaining.size() + " finer ranges");
+            int[] pending = {remaining.size()};
+            boolean[] allComplete = {true};
+            for (String child : remaining) {
+                fetchReportRange(child, generation, cutoff, collected, completedRanges, (childComplete, ignored) -> {
+                    allComplete[0] &= childComplete;
+                    if (--pending[0] == 0) {
+                        if (allComplete[0]) {
+                            completedRanges.add(prefix);
+                        }
+                        onRangeDone.onDone(allComplete[0], null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes fetched reports to the report database and publishes the viewport's reports from it.
+     *
+     * @param prefixes The geohash prefixes covering the viewport.
+     * @param rangeReports The reports of the ranges fetched in full.
+     * @param deltaReports The reports written after the previous watermarks.
+     * @param watermarks The new watermark of each range that was brought up to date.
+     * @param generation The fetch generation.
+     */
+    private void storeAndPublishReports(List<String> prefixes, Map<String, Map<String, Object>> rangeReports,
+                                        Map<String, Map<String, Object>> deltaReports, Map<String, Long> watermarks,
+                                        int generation) {
+        reportDatabase.execute(() -> {
+            long now = System.currentTimeMillis();
+            reportDatabase.upsert(rangeReports.values());
+            reportDatabase.upsert(deltaReports.values());
+            reportDatabase.deleteExpired(now);
+            reportDatabase.markRangesSynced(watermarks);
+            List<Map<String, Object>> reports = reportDatabase.queryPrefixes(prefixes, now);
+            mainHandler.post(() -> {
+                if (generation == reportFetchGeneration) {
+                    publishUserReports(reports);
+                }
+            });
+        });
+    }
+
+    /**
+     * Returns the server time up to which a geohash range is current: the latest watermark of
+     * the range itself or of any synced range containing it, or 0 if none was synced.
+     */
+    private static long syncedWatermark(String prefix, Map<String, Long> syncedRanges) {
+        long watermark = 0;
+        for (int length = 1; length <= prefix.length(); length++) {
+            Long synced = syncedRanges.get(prefix.substring(0, length));
+            if (synced != null) {
+                watermark = Math.max(watermark, synced);
+            }
+        }
+        return watermark;
+    }
+
+    /**
+     * Returns the latest server write time among the reports, or 0 if none is known.
+     */
+    private static long maxUpdatedAt(Collection<Map<String, Object>> reports) {
+        long max = 0;
+        for (Map<String, Object> report : reports) {
+            Object updatedAt = report.get(ReportDatabase.KEY_UPDATED_AT);
+            if (updatedAt instanceof Number) {
+                max = Math.max(max, ((Number) updatedAt).longValue());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Publishes the reports stored for the given ranges, unless newer reports are published
+     * before the read completes.
+     *
+     * @param prefixes The geohash prefixes to read.
+     */
+    private void loadStoredReports(List<String> prefixes) {
+        long publishedBefore = reportPublishCount;
+        reportDatabase.execute(() -> {
+            List<Map<String, Object>> reports = reportDatabase.queryPrefixes(prefixes, System.currentTimeMillis());
+            mainHandler.post(() -> {
+                if (reportPublishCount == publishedBefore) {
+                    publishUserReports(reports);
+                    Log.d(TAG, "Loaded " + reports.size() + " user reports from the report database");
+                }
+            });
+        });
+    }
+
+    /**
+     * Fetches one page of a geohash range query and continues with the next page from its cursor.
+     * Reports older than the cutoff are also skipped on the client, since the delta queries
+     * select reports by write time rather than submission time.
+     *
+     * @param query The query for the current page.
+     * @param page The one-based page number.
+     * @param generation The fetch generation this page belongs to.
+     * @param cutoff The oldest report timestamp to keep, in milliseconds.
+     * @param collected The reports collected so far, keyed by document id.
+     * @param onRangeDone Called once the last page of the range has been handled.
+     */
+    private void fetchReportPage(Query query, int page, int generation, long cutoff,
+                                 Map<String, Map<String, Object>> collected, RangeCallback onRangeDone) {
+        query.get()
                 .addOnSuccessListener(queryDocumentSnapshots -> {
-                    List<Map<String, Object>> reports = new ArrayList<>();
+                    if (generation != reportFetchGeneration) {
+                        return;
+                    }
+                    DocumentSnapshot lastDocument = null;
                     for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                        reports.add(document.getData());
+                        lastDocument = document;
+                        Map<String, Object> report = ReportDatabase.fromDocument(document);
+                        Object timestamp = report.get("timestamp");
+                        if (timestamp instanceof Number && ((Number) timestamp).longValue() < cutoff) {
+                            continue;
+                        }
+                        collected.put(document.getId(), report);
+                    }
+                    boolean fullPage = lastDocument != null && queryDocumentSnapshots.size() == REPORT_PAGE_SIZE;
+                    if (fullPage && page < MAX_REPORT_PAGES) {
+                        fetchReportPage(query.startAfter(lastDocument), page + 1, generation, cutoff,
+                                collected, onRangeDone);
+                    } else {
+                        onRangeDone.onDone(!fullPage, fullPage ? lastDocument : null);
                     }
-                    userReports.postValue(reports);
-                    applyUserPreferences();
-                    Log.d(TAG, "Fetched user reports: " + reports.size() + " items");
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Error fetching user reports: " + e.getMessage());
                     errorMessage.postValue("Failed to fetch user reports: " + e.getMessage());
+                    onRangeDone.onDone(false, null);
                 });
     }
 
+    /**
+     * Publishes a new set of user reports and schedules the derived state to be recomputed.
+     *
+     * @param reports The current user reports.
+     */
+    private void publishUserReports(List<Map<String, Object>> reports) {
+        reportPublishCount++;
+        userReports.postValue(reports);
+        userReportsInput = reports;
+        requestRecompute();
+        Log.d(TAG, "Published user reports: " + reports.size() + " items");
+    }
+
+    /**
+     * Sets the visible map region, shows the stored user reports inside it and fetches or syncs
+     * them. While the live sync is running, the stored reports are not published separately:
+     * the sync publishes the complete set of the new ranges once, from the Firestore cache
+     * where possible. Nothing happens if the region is covered by the same geohash cells as before.
+     *
+     * @param bounds The visible region of the map.
+     */
+    public void setViewport(LatLngBounds bounds) {
+        List<String> prefixes = GeoHash.coveringPrefixes(bounds);
+        if (prefixes.equals(viewportPrefixes)) {
+            return;
+        }
+        viewportPrefixes = prefixes;
+        if (!liveReportSync || !reportSync.isRunning()) {
+            loadStoredReports(prefixes);
+        }
+        if (liveReportSync) {
+            reportSync.setPrefixes(prefixes);
+        } else {
+            fetchUserReports();
+        }
+    }
+
+    /**
+     * Starts the live sync of user reports. Document changes are applied incrementally as they
+     * happen. Before the map reports its first viewport, the ranges synced last time are used,
+     * so reports are served from the report database right after a process restart.
+     */
+    public void startReportSync() {
+        liveReportSync = true;
+        List<String> prefixes = viewportPrefixes != null ? viewportPrefixes : reportSync.getSavedPrefixes();
+        if (viewportPrefixes == null) {
+            loadStoredReports(prefixes);
+        }
+        reportSync.setPrefixes(prefixes);
+    }
+
+    /**
+     * Stops the live sync of user reports. The reports received so far stay on the map.
+     */
+    public void stopReportSync() {
+        liveReportSync = false;
+        reportSync.stop();
+    }
+
     /**
      * Sets user preferences and applies them to the data.
      *
@@ -278,97 +762,154 @@ public class MainViewModel extends AndroidViewModel {
      */
     public void setUserPreferences(Map<String, Boolean> preferences) {
         userPreferences.setValue(preferences);
-        applyUserPreferences();
+        preferenceMask = TrafficCategory.compileMask(preferences);
+        requestRecompute();
     }
 
     /**
-     * Fetches user preferences from Firestore.
+     * Re-applies the user preferences cached by the UserPreferencesStore.
+     * No network read is made; the store's snapshot listener keeps the cache current.
      */
     public void fetchUserPreferences() {
-        FirebaseUser user = mAuth.getCurrentUser();
-        if (user != null) {
-            db.collection("Users").document(user.getUid())
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            Map<String, Boolean> prefs = new HashMap<>();
-                            prefs.put("showIncidentHigh", documentSnapshot.getBoolean("showIncidentHigh") != null ? documentSnapshot.getBoolean("showIncidentHigh") : true);
-                            prefs.put("showIncidentMedium", documentSnapshot.getBoolean("showIncidentMedium") != null ? documentSnapshot.getBoolean("showIncidentMedium") : true);
-                            prefs.put("showIncidentLow", documentSnapshot.getBoolean("showIncidentLow") != null ? documentSnapshot.getBoolean("showIncidentLow") : true);
-                            prefs.put("showEvent", documentSnapshot.getBoolean("showEvent") != null ? documentSnapshot.getBoolean("showEvent") : true);
-                            prefs.put("showAccident", documentSnapshot.getBoolean("showAccident") != null ? documentSnapshot.getBoolean("showAccident") : true);
-                            prefs.put("showUserReports", documentSnapshot.getBoolean("showUserReports") != null ? documentSnapshot.getBoolean("showUserReports") : true);
-                            setUserPreferences(prefs);
-                        } else {
-                            setDefaultPreferences();
-                        }
-                    })
-                    .addOnFailureListener(e -> setDefaultPreferences());
-        } else {
-            setDefaultPreferences();
-        }
+        Map<String, Boolean> prefs = preferencesStore.getPreferences().getValue();
+        setUserPreferences(prefs != null ? prefs : UserPreferencesStore.getDefaultPreferences());
     }
 
     /**
-     * Sets default user preferences.
+     * Schedules a recompute of the derived state on the state executor.
+     * Calls made while a recompute is already queued are coalesced into that recompute.
+     * Calls made after the ViewModel was cleared are ignored.
      */
-    private void setDefaultPreferences() {
-        Map<String, Boolean> prefs = new HashMap<>();
-        prefs.put("showIncidentHigh", true);
-        prefs.put("showIncidentMedium", true);
-        prefs.put("showIncidentLow", true);
-        prefs.put("showEvent", true);
-        prefs.put("showAccident", true);
-        prefs.put("showUserReports", true);
-        setUserPreferences(prefs);
-        Log.d(TAG, "setDefaultPreferences: Default preferences set");
+    private void requestRecompute() {
+        inputVersion.incrementAndGet();
+        if (stateExecutor.isShutdown() || !recomputePending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            stateExecutor.execute(this::applyUserPreferences);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "State executor shut down; dropping recompute");
+        }
     }
 
     /**
-     * Applies user preferences to filter traffic data and user reports.
+     * Applies user preferences to filter traffic data and user reports. Runs on the state executor.
+     * The preferences are compiled into a category bitmask, and the filtered traffic data is
+     * a view over the traffic snapshot merged from the cached category partitions. User reports
+     * are clustered once per new report list, so duplicates of one jam show as one aggregate,
+     * and then fused with the official items they confirm. Reports fused into a visible item
+     * are not shown separately. Expired reports and events outside their validity window are
+     * dropped through the validity indexes, and a timer recomputes when the next one expires.
+     * If the inputs change while this runs, the result is dropped in favour of the queued recompute.
      */
     private void applyUserPreferences() {
-        Map<String, Boolean> prefs = userPreferences.getValue();
-        List<Map<String, Object>> allTrafficData = trafficData.getValue();
-        List<Map<String, Object>> allUserReports = userReports.getValue();
-
-        if (prefs == null || allTrafficData == null || allUserReports == null) {
-            Log.w(TAG, "applyUserPreferences: Some data is null. prefs: " + (prefs != null) +
-                    ", allTrafficData: " + (allTrafficData != null) +
-                    ", allUserReports: " + (allUserReports != null));
-            return;
+        recomputePending.set(false);
+        long version = inputVersion.get();
+        TrafficSnapshot allTrafficData = trafficInput;
+        List<Map<String, Object>> allUserReports = userReportsInput;
+        int mask = preferenceMask;
+
+        if (allTrafficData != partitionedTraffic) {
+            trafficPartitions = TrafficCategory.partition(allTrafficData);
+            partitionedTraffic = allTrafficData;
         }
-
-        List<Map<String, Object>> filteredTraffic = new ArrayList<>();
-        for (Map<String, Object> item : allTrafficData) {
-            String type = (String) item.get("type");
-            String severity = (String) item.get("severityTypeRefDescription");
-
-            boolean showIncidentHigh = prefs.getOrDefault("showIncidentHigh", true);
-            boolean showIncidentMedium = prefs.getOrDefault("showIncidentMedium", true);
-            boolean showIncidentLow = prefs.getOrDefault("showIncidentLow", true);
-            boolean showEvent = prefs.getOrDefault("showEvent", true);
-            boolean showAccident = prefs.getOrDefault("showAccident", true);
-
-            if ((type.equalsIgnoreCase("incident") && severity.equalsIgnoreCase("high") && showIncidentHigh) ||
-                    (type.equalsIgnoreCase("incident") && severity.equalsIgnoreCase("medium") && showIncidentMedium) ||
-                    (type.equalsIgnoreCase("incident") && severity.equalsIgnoreCase("low") && showIncidentLow) ||
-                    (type.equalsIgnoreCase("event") && showEvent) ||
-                    (type.equalsIgnoreCase("accident") && showAccident)) {
-                filteredTraffic.add(item);
+        if (allUserReports != mergedReportSource) {
+            mergedUserReports = ReportClusterer.merge(allUserReports);
+            mergedReportSource = allUserReports;
+        }
+        long now = System.currentTimeMillis();
+        if (mergedUserReports != validitySource) {
+            reportValidity = ValidityIndex.ofReports(mergedUserReports);
+            validitySource = mergedUserReports;
+            activeReportBits = null;
+        }
+        BitSet reportBits = reportValidity.activeAt(now);
+        if (!reportBits.equals(activeReportBits)) {
+            activeReportBits = reportBits;
+            activeReports = new ArrayList<>(reportBits.cardinality());
+            for (int i = reportBits.nextSetBit(0); i >= 0; i = reportBits.nextSetBit(i + 1)) {
+                activeReports.add(mergedUserReports.get(i));
             }
         }
-        filteredTrafficData.postValue(filteredTraffic);
+        ValidityIndex trafficValidity = allTrafficData.getValidityIndex();
+        scheduleExpiryRecompute(now, trafficValidity);
 
-        boolean showUserReports = prefs.getOrDefault("showUserReports", true);
-        if (showUserReports) {
-            filteredUserReports.postValue(allUserReports);
-        } else {
-            filteredUserReports.postValue(new ArrayList<>());
+        if (fusion == null || fusion.getSnapshot() != allTrafficData || fusedReportSource != activeReports) {
+            fusion = FusionIndex.build(allTrafficData, activeReports);
+            fusedReportSource = activeReports;
+            latestFusion = fusion;
+        }
+        TrafficIndexView filteredTraffic =
+                TrafficCategory.select(allTrafficData, trafficPartitions, mask).withFusion(fusion);
+        if (!trafficValidity.isStatic()) {
+            filteredTraffic = filteredTraffic.retain(trafficValidity.activeAt(now));
         }
+        boolean showUserReports = (mask & TrafficCategory.USER_REPORT) != 0;
+        List<Map<String, Object>> separateReports =
+                showUserReports ? fusion.getSeparateReports(mask) : new ArrayList<>();
+
+        if (version != inputVersion.get()) {
+            Log.d(TAG, "applyUserPreferences: Inputs changed, dropping superseded result");
+            return;
+        }
+        filteredTrafficData.postValue(filteredTraffic);
+        filteredUserReports.postValue(separateReports);
 
         Log.d(TAG, "applyUserPreferences: Filtered traffic data size: " + filteredTraffic.size() +
-                ", Filtered user reports size: " + (showUserReports ? allUserReports.size() : 0));
+                " (" + fusion.getFusedItemCount() + " confirmed), Filtered user reports size: " +
+                separateReports.size() + " merged from " + allUserReports.size());
+    }
+
+    /**
+     * Schedules a recompute for the next time an official item or user report starts or expires,
+     * replacing the previously scheduled one. When it fires, expired reports are also evicted
+     * from the report set and the report database. Runs on the state executor.
+     *
+     * @param now The current time in milliseconds.
+     * @param trafficValidity The validity index of the current traffic snapshot.
+     */
+    private void scheduleExpiryRecompute(long now, ValidityIndex trafficValidity) {
+        if (expiryTimer != null) {
+            expiryTimer.cancel(false);
+            expiryTimer = null;
+        }
+        long next = Math.min(trafficValidity.nextChangeAfter(now), reportValidity.nextChangeAfter(now));
+        if (next == ValidityIndex.UNBOUNDED_END) {
+            return;
+        }
+        long delay = Math.max(MIN_EXPIRY_DELAY_MS, next - now);
+        try {
+            expiryTimer = stateExecutor.schedule(() -> {
+                mainHandler.post(this::evictExpiredReports);
+                requestRecompute();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "State executor shut down; not scheduling expiry recompute");
+        }
+    }
+
+    /**
+     * Drops the expired user reports from the live sync or the published report list, and
+     * deletes them from the report database, so they are not merged and indexed again on
+     * every recompute. Runs on the main thread.
+     */
+    private void evictExpiredReports() {
+        long now = System.currentTimeMillis();
+        if (liveReportSync && reportSync.isRunning()) {
+            reportSync.evictExpired(now);
+        } else {
+            List<Map<String, Object>> reports = userReportsInput;
+            List<Map<String, Object>> kept = new ArrayList<>(reports.size());
+            for (Map<String, Object> report : reports) {
+                if (ValidityIndex.reportEndOf(report, now) > now) {
+                    kept.add(report);
+                }
+            }
+            if (kept.size() < reports.size()) {
+                publishUserReports(kept);
+            }
+        }
+        reportDatabase.execute(() -> reportDatabase.deleteExpired(now));
     }
 
     /**
@@ -379,14 +920,13 @@ public class MainViewModel extends AndroidViewModel {
         isUserLoggedIn.setValue(currentUser != null);
         if (currentUser != null) {
             userEmail.setValue(currentUser.getEmail());
-            setupPreferencesListener();
+            preferencesStore.start(currentUser.getUid());
         } else {
             userEmail.setValue(null);
-            if (preferencesListener != null) {
-                preferencesListener.remove();
-                preferencesListener = null;
-            }
+            preferencesStore.stop();
         }
+        Log.d(TAG, "checkUserLoginStatus: Active Firestore listeners: "
+                + FirestoreListenerManager.getInstance().getActiveListenerCount());
     }
 
     /**
@@ -394,18 +934,29 @@ public class MainViewModel extends AndroidViewModel {
      */
     public void logout() {
         mAuth.signOut();
+        preferencesStore.clear();
         checkUserLoginStatus();
     }
 
     /**
-     * Retrieves nearby traffic items based on geographical coordinates.
+     * Retrieves the nearby traffic items active now, based on geographical coordinates, closest
+     * first. The result is kept current as new locations arrive and is only recomputed once the
+     * user moved past the {@link NearbyTrafficEngine} hysteresis distance or an item started or
+     * expired, so repeated queries while moving do not rescan the snapshot.
      * @param latitude The latitude of the center point
      * @param longitude The longitude of the center point
      * @param radius The radius in meters to search within
-     * @return A list of nearby traffic items
+     * @return A list of nearby traffic items, with confirmed items in their fused form
      */
     public List<Map<String, Object>> getNearbyTrafficItems(double latitude, double longitude, double radius) {
-        return trafficDataRepository.getNearbyTrafficItems(latitude, longitude, radius);
+        TrafficSnapshot snapshot = trafficDataRepository.getSnapshot();
+        if (snapshot == null) {
+            return trafficDataRepository.getNearbyTrafficItems(latitude, longitude, radius);
+        }
+        nearbyRadius = radius;
+        TrafficIndexView nearby = nearbyEngine.query(snapshot, latitude, longitude, radius);
+        Log.d(TAG, "Nearby query: " + nearby.size() + " items, " + nearbyEngine.getStats());
+        return nearby.withFusion(latestFusion);
     }
 
     /**
@@ -418,8 +969,8 @@ public class MainViewModel extends AndroidViewModel {
     @Override
     protected void onCleared() {
         super.onCleared();
-        if (preferencesListener != null) {
-            preferencesListener.remove();
-        }
+        preferencesStore.getPreferences().removeObserver(preferencesObserver);
+        reportSync.stop();
+        stateExecutor.shutdownNow();
     }
 }
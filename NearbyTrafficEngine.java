@@ -0,0 +1,186 @@
+package com.example.myapplication;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * NearbyTrafficEngine keeps the traffic items near a moving location up to date without
+ * rescanning the snapshot on every fix. It works at two distances:
+ * <ul>
+ *     <li>Candidates are the items within the radius plus {@link #CANDIDATE_MARGIN_METERS} of a
+ *     candidate anchor, gathered from the snapshot's grid cells. As long as the location stays
+ *     within the margin of that anchor, every nearby item is a candidate, so the cells are not
+ *     visited again.</li>
+ *     <li>The nearby result is only recomputed from the candidates once the location has moved
+ *     more than {@link #HYSTERESIS_METERS} from where it was last computed; smaller moves, such
+ *     as GPS jitter, return the previous result.</li>
+ * </ul>
+ * Only items active now, according to the snapshot's {@link ValidityIndex}, are returned, and a
+ * result is not reused past the next time an item starts or expires.
+ * A new snapshot or radius starts over. Results are ordered closest first.
+ * Not thread-safe; use from one thread.
+ */
+public class NearbyTrafficEngine {
+    /**
+     * Distance the location must move before the nearby result is recomputed, in meters.
+     */
+    public static final double HYSTERESIS_METERS = 100;
+
+    /**
+     * Extra distance around the radius from which candidates are gathered, in meters.
+     */
+    public static final double CANDIDATE_MARGIN_METERS = 1000;
+
+    /**
+     * The snapshot of the current candidates, or null.
+     */
+    private TrafficSnapshot snapshot;
+
+    /**
+     * The radius of the current result, in meters.
+     */
+    private double radius;
+
+    /**
+     * Snapshot indices of the candidates, of which the first {@link #candidateCount} are used.
+     */
+    private int[] candidates = new int[0];
+
+    /**
+     * Number of candidates.
+     */
+    private int candidateCount;
+
+    /**
+     * Latitude around which the candidates were gathered.
+     */
+    private double candidateLat;
+
+    /**
+     * Longitude around which the candidates were gathered.
+     */
+    private double candidateLng;
+
+    /**
+     * Latitude at which the result was computed.
+     */
+    private double resultLat;
+
+    /**
+     * Longitude at which the result was computed.
+     */
+    private double resultLng;
+
+    /**
+     * The current nearby result, or null.
+     */
+    private TrafficIndexView result;
+
+    /**
+     * Time until which the active items of the result stay the same, in milliseconds.
+     */
+    private long resultValidUntil;
+
+    /**
+     * Number of times the candidates were gathered from the grid, for logging.
+     */
+    private int gatherCount;
+
+    /**
+     * Number of times the result was recomputed from the candidates, for logging.
+     */
+    private int recomputeCount;
+
+    /**
+     * Returns the active items of a snapshot within a radius of a location, closest first.
+     * Returns the previous result when the location moved less than {@link #HYSTERESIS_METERS}
+     * since it was computed for the same snapshot and radius, and no item started or expired
+     * since.
+     *
+     * @param current The traffic snapshot.
+     * @param latitude The latitude of the location.
+     * @param longitude The longitude of the location.
+     * @param radiusMeters The radius in meters.
+     * @return The nearby items.
+     */
+    public TrafficIndexView query(TrafficSnapshot current, double latitude, double longitude, double radiusMeters) {
+        long now = System.currentTimeMillis();
+        boolean sameQuery = current == snapshot && radiusMeters == radius;
+        if (sameQuery && result != null && now < resultValidUntil
+                && SpatialGridIndex.distanceMeters(resultLat, resultLng, latitude, longitude) <= HYSTERESIS_METERS) {
+            return result;
+        }
+        if (!sameQuery
+                || SpatialGridIndex.distanceMeters(candidateLat, candidateLng, latitude, longitude) > CANDIDATE_MARGIN_METERS) {
+            gather(current, latitude, longitude, radiusMeters);
+        }
+        ValidityIndex validity = snapshot.getValidityIndex();
+        result = select(latitude, longitude, validity.isStatic() ? null : validity.activeAt(now));
+        resultValidUntil = validity.nextChangeAfter(now);
+        resultLat = latitude;
+        resultLng = longitude;
+        recomputeCount++;
+        return result;
+    }
+
+    /**
+     * Returns the number of grid gathers and result recomputations so far.
+     *
+     * @return A short summary for logging.
+     */
+    public String getStats() {
+        return gatherCount + " gathers, " + recomputeCount + " recomputes, " + candidateCount + " candidates";
+    }
+
+    /**
+     * Gathers the candidates around a location from the snapshot's grid.
+     */
+    private void gather(TrafficSnapshot current, double latitude, double longitude, double radiusMeters) {
+        snapshot = current;
+        radius = radiusMeters;
+        candidateLat = latitude;
+        candidateLng = longitude;
+        if (candidates.length < current.size()) {
+            candidates = new int[current.size()];
+        }
+        double reach = radiusMeters + CANDIDATE_MARGIN_METERS;
+        int[] count = {0};
+        int[] gathered = candidates;
+        current.getSpatialIndex().forEachWithin(latitude, longitude, reach, i -> {
+            if (SpatialGridIndex.distanceMeters(latitude, longitude,
+                    current.getLatitude(i), current.getLongitude(i)) <= reach) {
+                gathered[count[0]++] = i;
+            }
+        });
+        candidateCount = count[0];
+        gatherCount++;
+    }
+
+    /**
+     * Selects the active candidates within the radius of a location, closest first.
+     *
+     * @param active The active snapshot indices, or null if every item is active.
+     */
+    private TrafficIndexView select(double latitude, double longitude, BitSet active) {
+        long[] keyed = new long[candidateCount];
+        int count = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int i = candidates[c];
+            if (active != null && !active.get(i)) {
+                continue;
+            }
+            float distance = SpatialGridIndex.distanceMeters(latitude, longitude,
+                    snapshot.getLatitude(i), snapshot.getLongitude(i));
+            if (distance <= radius) {
+                // Distance in whole meters in the high bits, index in the low bits.
+                keyed[count++] = ((long) distance << 32) | i;
+            }
+        }
+        Arrays.sort(keyed, 0, count);
+        int[] indices = new int[count];
+        for (int k = 0; k < count; k++) {
+            indices[k] = (int) keyed[k];
+        }
+        return new TrafficIndexView(snapshot, indices, count);
+    }
+}
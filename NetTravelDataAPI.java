@@ -2,18 +2,17 @@ package com.example.myapplication;
 
 import android.content.Context;
 import android.util.Log;
-import java.io.BufferedReader;
 import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
 import android.util.Base64;
-import javax.net.ssl.HttpsURLConnection;
 
 /**
  * NetTravelDataAPI handles the communication with the NetTravelData API.
  * It provides methods to fetch traffic data and save it locally.
+ * Requests go through the shared HttpClient and run on its executor, so they reuse pooled
+ * connections, TLS sessions and threads.
  */
 public class NetTravelDataAPI {
   /**
@@ -73,64 +72,30 @@ public class NetTravelDataAPI {
    * @param callback The callback to handle the result
    */
   public static void getData(Context context, String dataset, DataFetchCallback callback) {
-    new Thread(() -> {
-      HttpsURLConnection connection = null;
+    HttpClient httpClient = HttpClient.getInstance(context);
+    httpClient.getExecutor().execute(() -> {
       try {
-        connection = setupConnection(dataset);
-        String responseData = fetchData(connection);
+        String responseData = httpClient.get(BASE_URL + dataset, authorizationHeaders());
         Log.d(TAG, "Fetched data: " + responseData.substring(0, Math.min(responseData.length(), 100)) + "..."); // Log first 100 chars
         saveDataToFile(context, responseData, dataset);
         callback.onSuccess(responseData);
       } catch (Exception e) {
         Log.e(TAG, "Error fetching data", e);
         callback.onError(e.getMessage());
-      } finally {
-        if (connection != null) {
-          connection.disconnect();
-        }
       }
-    }).start();
+    });
   }
 
   /**
-   * Sets up the HTTPS connection with proper authentication.
-   * @param dataset The dataset to fetch
-   * @return The configured HttpsURLConnection
-   * @throws IOException If an I/O error occurs
+   * Builds the request headers with proper authentication.
+   * @return The headers to send with every request
    */
-  private static HttpsURLConnection setupConnection(String dataset) throws IOException {
-    URL url = new URL(BASE_URL + dataset);
-    HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
-    connection.setRequestMethod("GET");
+  private static Map<String, String> authorizationHeaders() {
     String encodedCredentials = Base64.encodeToString(
             (USERNAME + ":" + PASSWORD).getBytes(StandardCharsets.UTF_8),
             Base64.NO_WRAP
     );
-    connection.setRequestProperty("Authorization", "Basic " + encodedCredentials);
-    return connection;
-  }
-
-  /**
-   * Fetches data from the established connection.
-   * @param connection The HttpsURLConnection to fetch data from
-   * @return The fetched data as a String
-   * @throws IOException If an I/O error occurs
-   */
-  private static String fetchData(HttpsURLConnection connection) throws IOException {
-    int responseCode = connection.getResponseCode();
-    Log.d(TAG, "Response Code: " + responseCode);
-    if (responseCode != HttpsURLConnection.HTTP_OK) {
-      throw new IOException("HTTP error code: " + responseCode);
-    }
-
-    StringBuilder response = new StringBuilder();
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        response.append(line);
-      }
-    }
-    return response.toString();
+    return Collections.singletonMap("Authorization", "Basic " + encodedCredentials);
   }
 
   /**
@@ -0,0 +1,102 @@
+package com.example.myapplication;
+
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * PointsCounter stores each user's points as a sharded counter in Users/{uid}/pointShards.
+ * Increments go to a random shard, so bursts of reports do not contend on one document and
+ * never touch the user document holding the preferences. The total is the sum of the shards
+ * plus any points stored on the user document before sharding; readers listen to both, so
+ * the total is read at most {@link #NUM_SHARDS} documents at a time.
+ */
+public final class PointsCounter {
+    /**
+     * Number of shards per user. Each shard sustains about one write per second.
+     */
+    public static final int NUM_SHARDS = 10;
+
+    /**
+     * Name of the subcollection holding the shards of a user.
+     */
+    private static final String SHARD_COLLECTION = "pointShards";
+
+    /**
+     * Field holding the count of a shard.
+     */
+    private static final String FIELD_COUNT = "count";
+
+    /**
+     * Field holding the points stored on the user document before sharding.
+     */
+    private static final String FIELD_LEGACY_POINTS = "points";
+
+    private PointsCounter() {
+    }
+
+    /**
+     * Adds an increment of a user's points to a transaction, on a randomly chosen shard.
+     * The increment is not idempotent; callers must check inside the same transaction that
+     * the points have not been awarded yet.
+     *
+     * @param db The Firestore instance.
+     * @param transaction The transaction to add the write to.
+     * @param uid The id of the user.
+     * @param amount The number of points to add.
+     */
+    public static void increment(FirebaseFirestore db, Transaction transaction, String uid, long amount) {
+        int shard = ThreadLocalRandom.current().nextInt(NUM_SHARDS);
+        Map<String, Object> update = new HashMap<>();
+        update.put(FIELD_COUNT, FieldValue.increment(amount));
+        transaction.set(shards(db, uid).document(String.valueOf(shard)), update, SetOptions.merge());
+    }
+
+    /**
+     * Returns the points stored on a user document before sharding.
+     *
+     * @param userDocument A snapshot of the user's document.
+     * @return The legacy points, or 0 if there are none.
+     */
+    public static long legacyPointsOf(DocumentSnapshot userDocument) {
+        Long legacy = userDocument.exists() ? userDocument.getLong(FIELD_LEGACY_POINTS) : null;
+        return legacy != null ? legacy : 0L;
+    }
+
+    /**
+     * Returns the sum of a user's shards.
+     *
+     * @param shardDocuments A snapshot of the user's shard subcollection.
+     * @return The points counted by the shards.
+     */
+    public static long sumOf(QuerySnapshot shardDocuments) {
+        long total = 0;
+        for (QueryDocumentSnapshot shard : shardDocuments) {
+            Long count = shard.getLong(FIELD_COUNT);
+            if (count != null) {
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the shard subcollection of a user, which holds at most {@link #NUM_SHARDS}
+     * documents.
+     *
+     * @param db The Firestore instance.
+     * @param uid The id of the user.
+     * @return The user's shards.
+     */
+    public static CollectionReference shards(FirebaseFirestore db, String uid) {
+        return db.collection("Users").document(uid).collection(SHARD_COLLECTION);
+    }
+}
@@ -0,0 +1,326 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PolylineDecoder decodes Google encoded polylines into primitive coordinate arrays.
+ * The bounding box and the cumulative distance along the path are computed in the same pass,
+ * so callers neither allocate a LatLng per point nor iterate the path a second time.
+ * The arrays are reused across calls and only grow, so a decoder should be kept and reused;
+ * their contents are valid until the next call to {@link #decode(String)}.
+ * Not thread-safe; use one decoder per thread.
+ */
+public class PolylineDecoder {
+    /**
+     * Mean radius of the Earth, in meters.
+     */
+    private static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    /**
+     * Initial capacity of the coordinate arrays.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Latitude of each decoded point, in degrees.
+     */
+    private double[] latitudes = new double[INITIAL_CAPACITY];
+
+    /**
+     * Longitude of each decoded point, in degrees.
+     */
+    private double[] longitudes = new double[INITIAL_CAPACITY];
+
+    /**
+     * Distance along the path from the first point to each point, in meters.
+     */
+    private double[] cumulativeDistances = new double[INITIAL_CAPACITY];
+
+    /**
+     * Number of points decoded by the last call.
+     */
+    private int size;
+
+    /**
+     * Southern edge of the decoded points' bounding box, in degrees.
+     */
+    private double minLatitude;
+
+    /**
+     * Northern edge of the decoded points' bounding box, in degrees.
+     */
+    private double maxLatitude;
+
+    /**
+     * Western edge of the decoded points' bounding box, in degrees.
+     */
+    private double minLongitude;
+
+    /**
+     * Eastern edge of the decoded points' bounding box, in degrees.
+     */
+    private double maxLongitude;
+
+    /**
+     * Latitude of the last decoded point, in radians.
+     */
+    private double previousLatRad;
+
+    /**
+     * Longitude of the last decoded point, in radians.
+     */
+    private double previousLngRad;
+
+    /**
+     * Cosine of the latitude of the last decoded point.
+     */
+    private double previousCosLat;
+
+    /**
+     * Decodes an encoded polyline string, replacing the previously decoded path.
+     * This method uses the polyline encoding algorithm used by Google Maps.
+     * A final point cut off inside either of its values is dropped rather than decoded.
+     *
+     * @param encoded The encoded polyline string.
+     * @return The number of decoded points.
+     */
+    public int decode(String encoded) {
+        reset();
+        int index = 0, len = encoded.length();
+        int lat = 0, lng = 0;
+
+        while (index < len) {
+            // Decode latitude
+            int b, shift = 0, result = 0;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20 && index < len);
+            if (b >= 0x20 || index >= len) {
+                // Truncated latitude, or no longitude after it.
+                break;
+            }
+            lat += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+            // Decode longitude
+            shift = 0;
+            result = 0;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20 && index < len);
+            if (b >= 0x20) {
+                // Truncated longitude.
+                break;
+            }
+            lng += ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+
+            append(lat, lng);
+        }
+        return size;
+    }
+
+    /**
+     * Loads an already decoded path, replacing the previously decoded one, so cached routes
+     * get the same bounds and distances without re-encoding.
+     *
+     * @param latitudesE5 The latitude of each point, in units of 1E-5 degrees.
+     * @param longitudesE5 The longitude of each point, in units of 1E-5 degrees.
+     * @return The number of loaded points.
+     */
+    public int load(int[] latitudesE5, int[] longitudesE5) {
+        reset();
+        ensureCapacity(latitudesE5.length);
+        for (int i = 0; i < latitudesE5.length; i++) {
+            append(latitudesE5[i], longitudesE5[i]);
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of points decoded by the last call.
+     *
+     * @return The point count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the latitude of a decoded point.
+     *
+     * @param index The point index.
+     * @return The latitude in degrees.
+     */
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    /**
+     * Returns the longitude of a decoded point.
+     *
+     * @param index The point index.
+     * @return The longitude in degrees.
+     */
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Returns the distance along the path from the first point to a decoded point.
+     *
+     * @param index The point index.
+     * @return The distance in meters.
+     */
+    public double getCumulativeDistance(int index) {
+        return cumulativeDistances[index];
+    }
+
+    /**
+     * Returns the length of the decoded path.
+     *
+     * @return The length in meters, or 0 if fewer than two points were decoded.
+     */
+    public double getTotalDistance() {
+        return size > 0 ? cumulativeDistances[size - 1] : 0;
+    }
+
+    /**
+     * Returns the bounding box of the decoded path.
+     *
+     * @return The bounds, or null if no points were decoded.
+     */
+    public LatLngBounds getBounds() {
+        if (size == 0) {
+            return null;
+        }
+        return new LatLngBounds(new LatLng(minLatitude, minLongitude), new LatLng(maxLatitude, maxLongitude));
+    }
+
+    /**
+     * Returns the latitudes of the decoded points in units of 1E-5 degrees, the precision of
+     * the polyline encoding.
+     *
+     * @return A new array with one latitude per point.
+     */
+    public int[] copyLatitudesE5() {
+        return toE5(latitudes);
+    }
+
+    /**
+     * Returns the longitudes of the decoded points in units of 1E-5 degrees, the precision of
+     * the polyline encoding.
+     *
+     * @return A new array with one longitude per point.
+     */
+    public int[] copyLongitudesE5() {
+        return toE5(longitudes);
+    }
+
+    /**
+     * Returns a copy of the cumulative distances of the decoded points, for callers that keep
+     * them beyond the next decode.
+     *
+     * @return The distances in meters, one per point.
+     */
+    public double[] copyCumulativeDistances() {
+        return Arrays.copyOf(cumulativeDistances, size);
+    }
+
+    /**
+     * Builds the LatLng list of the decoded path for rendering.
+     *
+     * @return A new list with one LatLng per point.
+     */
+    public List<LatLng> toLatLngList() {
+        List<LatLng> path = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            path.add(new LatLng(latitudes[i], longitudes[i]));
+        }
+        return path;
+    }
+
+    /**
+     * Clears the decoded path and its bounds.
+     */
+    private void reset() {
+        size = 0;
+        minLatitude = Double.POSITIVE_INFINITY;
+        maxLatitude = Double.NEGATIVE_INFINITY;
+        minLongitude = Double.POSITIVE_INFINITY;
+        maxLongitude = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Appends a point, extending the bounds and the cumulative distance.
+     */
+    private void append(int latE5, int lngE5) {
+        double latitude = latE5 / 1E5;
+        double longitude = lngE5 / 1E5;
+        double latRad = Math.toRadians(latitude);
+        double lngRad = Math.toRadians(longitude);
+        double cosLat = Math.cos(latRad);
+        double distance = 0;
+        if (size > 0) {
+            distance = cumulativeDistances[size - 1]
+                    + haversine(previousLatRad, previousLngRad, previousCosLat, latRad, lngRad, cosLat);
+        }
+        previousLatRad = latRad;
+        previousLngRad = lngRad;
+        previousCosLat = cosLat;
+
+        ensureCapacity(size + 1);
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        cumulativeDistances[size] = distance;
+        size++;
+
+        minLatitude = Math.min(minLatitude, latitude);
+        maxLatitude = Math.max(maxLatitude, latitude);
+        minLongitude = Math.min(minLongitude, longitude);
+        maxLongitude = Math.max(maxLongitude, longitude);
+    }
+
+    /**
+     * Converts the first {@link #size} degrees of an array to units of 1E-5 degrees.
+     */
+    private int[] toE5(double[] degrees) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (int) Math.round(degrees[i] * 1E5);
+        }
+        return result;
+    }
+
+    /**
+     * Grows the coordinate arrays to hold at least the given number of points.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= latitudes.length) {
+            return;
+        }
+        int grown = Math.max(capacity, latitudes.length * 2);
+        latitudes = Arrays.copyOf(latitudes, grown);
+        longitudes = Arrays.copyOf(longitudes, grown);
+        cumulativeDistances = Arrays.copyOf(cumulativeDistances, grown);
+    }
+
+    /**
+     * Returns the great-circle distance between two points given in radians, reusing the
+     * cosines of their latitudes.
+     */
+    private static double haversine(double lat1, double lng1, double cosLat1,
+                                    double lat2, double lng2, double cosLat2) {
+        double sinDLat = Math.sin((lat2 - lat1) / 2);
+        double sinDLng = Math.sin((lng2 - lng1) / 2);
+        double a = sinDLat * sinDLat + cosLat1 * cosLat2 * sinDLng * sinDLng;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -4,12 +4,9 @@ import android.app.Application;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
-import androidx.lifecycle.ViewModelProvider;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.FirebaseFirestore;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -21,33 +18,25 @@ public class ProfileViewModel extends AndroidViewModel {
     /** FirebaseAuth instance used for user authentication. */
     private final FirebaseAuth mAuth;
 
-    /** FirebaseFirestore instance used for database operations. */
-    private final FirebaseFirestore db;
+    /** Shared store holding the user's preferences and points, backed by local storage. */
+    private final UserPreferencesStore preferencesStore;
 
     /** LiveData containing the user's email address. */
     private final MutableLiveData<String> userEmail = new MutableLiveData<>();
 
-    /** LiveData containing the user's accumulated points. */
-    private final MutableLiveData<Long> userPoints = new MutableLiveData<>();
-
-    /** LiveData containing the user's notification preferences. */
-    private final MutableLiveData<Map<String, Boolean>> userPreferences = new MutableLiveData<>();
-
     /** LiveData containing any error messages to be displayed to the user. */
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
 
     /** LiveData indicating whether the save operation was successful. */
     private final MutableLiveData<Boolean> saveSuccess = new MutableLiveData<>();
 
-
-
     /**
      * Constructs a new ProfileViewModel.
      *
-     * This constructor initializes the ViewModel with instances of FirebaseAuth
-     * and FirebaseFirestore for user authentication and data storage respectively.
-     * It also sets up MutableLiveData objects for various user profile attributes
-     * such as email, points, preferences, and operation status indicators.
+     * This constructor initializes the ViewModel with the FirebaseAuth instance for
+     * user authentication and the shared UserPreferencesStore for the user's
+     * preferences and points. It also sets up MutableLiveData objects for the email
+     * and operation status indicators.
      *
      * @param application The application that this ViewModel is attached to,
      *                    providing access to application-level resources.
@@ -55,8 +44,7 @@ public class ProfileViewModel extends AndroidViewModel {
     public ProfileViewModel(Application application) {
         super(application);
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
-
+        preferencesStore = UserPreferencesStore.getInstance(application);
     }
 
     /**
@@ -76,7 +64,7 @@ public class ProfileViewModel extends AndroidViewModel {
      *         Observers of this LiveData will be notified whenever the point total changes.
      */
     public LiveData<Long> getUserPoints() {
-        return userPoints;
+        return preferencesStore.getPoints();
     }
 
     /**
@@ -89,7 +77,7 @@ public class ProfileViewModel extends AndroidViewModel {
      *         whenever any preference changes.
      */
     public LiveData<Map<String, Boolean>> getUserPreferences() {
-        return userPreferences;
+        return preferencesStore.getPreferences();
     }
 
     /**
@@ -116,7 +104,8 @@ public class ProfileViewModel extends AndroidViewModel {
     }
 
     /**
-     * Loads the user profile data from Firebase.
+     * Loads the user profile data. Preferences and points are served from the local cache
+     * of the UserPreferencesStore, so no network read is made.
      */
     public void loadUserProfile() {
         FirebaseUser user = mAuth.getCurrentUser();
@@ -129,70 +118,30 @@ public class ProfileViewModel extends AndroidViewModel {
     }
 
     /**
-     * Fetches user preferences from Firestore.
+     * Makes sure the UserPreferencesStore is listening to the user's document.
+     * The store keeps preferences and points current, so no one-off read is needed.
      */
     public void fetchUserPreferences() {
         FirebaseUser user = mAuth.getCurrentUser();
         if (user != null) {
-            db.collection("Users").document(user.getUid())
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            Map<String, Boolean> prefs = new HashMap<>();
-                            prefs.put("showIncidentHigh", documentSnapshot.getBoolean("showIncidentHigh") != null ? documentSnapshot.getBoolean("showIncidentHigh") : true);
-                            prefs.put("showIncidentMedium", documentSnapshot.getBoolean("showIncidentMedium") != null ? documentSnapshot.getBoolean("showIncidentMedium") : true);
-                            prefs.put("showIncidentLow", documentSnapshot.getBoolean("showIncidentLow") != null ? documentSnapshot.getBoolean("showIncidentLow") : true);
-                            prefs.put("showEvent", documentSnapshot.getBoolean("showEvent") != null ? documentSnapshot.getBoolean("showEvent") : true);
-                            prefs.put("showAccident", documentSnapshot.getBoolean("showAccident") != null ? documentSnapshot.getBoolean("showAccident") : true);
-                            prefs.put("showUserReports", documentSnapshot.getBoolean("showUserReports") != null ? documentSnapshot.getBoolean("showUserReports") : true);
-                            userPreferences.setValue(prefs);
-
-                            // Fetch and set user points
-                            Long points = documentSnapshot.getLong("points");
-                            userPoints.setValue(points != null ? points : 0L);
-                        } else {
-                            setDefaultPreferences();
-                            userPoints.setValue(0L);
-                        }
-                    })
-                    .addOnFailureListener(e -> errorMessage.setValue("Error loading profile data: " + e.getMessage()));
+            preferencesStore.start(user.getUid());
         } else {
             errorMessage.setValue("No user logged in");
         }
     }
 
-
     /**
-     * Saves user preferences to Firestore and local storage.
+     * Saves user preferences to local storage and writes them through to Firestore.
      * @param preferences Map of user preferences to save
      */
     public void saveUserPreferences(Map<String, Boolean> preferences) {
         FirebaseUser user = mAuth.getCurrentUser();
         if (user != null) {
-            db.collection("Users").document(user.getUid())
-                    .update(new HashMap<>(preferences))
-                    .addOnSuccessListener(aVoid -> {
-                        userPreferences.setValue(preferences);
-                        saveSuccess.setValue(true);
-                    })
+            preferencesStore.save(user.getUid(), preferences)
+                    .addOnSuccessListener(aVoid -> saveSuccess.setValue(true))
                     .addOnFailureListener(e -> errorMessage.setValue("Error saving preferences: " + e.getMessage()));
         } else {
             errorMessage.setValue("No user logged in");
         }
     }
-
-    /**
-     * Sets default preferences when user data is not available.
-     */
-    private void setDefaultPreferences() {
-        Map<String, Boolean> defaultPrefs = new HashMap<>();
-        defaultPrefs.put("showIncidentHigh", true);
-        defaultPrefs.put("showIncidentMedium", true);
-        defaultPrefs.put("showIncidentLow", true);
-        defaultPrefs.put("showEvent", true);
-        defaultPrefs.put("showAccident", true);
-        defaultPrefs.put("showUserReports", true);
-        userPreferences.setValue(defaultPrefs);
-
-    }
-}
\ No newline at end of file
+}
@@ -103,8 +103,6 @@ public class ReportActivity extends AppCompatActivity {
         viewModel.getSubmissionSuccessful().observe(this, isSuccessful -> {
             if (isSuccessful) {
                 Toast.makeText(this, "Report submitted! You earned 2 points.", Toast.LENGTH_SHORT).show();
-                setResult(RESULT_OK);
-                finish();
             }
         });
     }
@@ -128,8 +126,10 @@ public class ReportActivity extends AppCompatActivity {
             String title = titleInput.getText().toString().trim();
             String snippet = snippetInput.getText().toString().trim();
             if (!title.isEmpty() && !snippet.isEmpty()) {
-                viewModel.submitReport(incidentType, title, snippet, latitude, longitude);
-                addNewMarkerAndFinish(incidentType, title, snippet);
+                String reportId = viewModel.submitReport(incidentType, title, snippet, latitude, longitude);
+                if (reportId != null) {
+                    addNewMarkerAndFinish(reportId, incidentType, title, snippet);
+                }
             } else {
                 Toast.makeText(ReportActivity.this, "Please fill in all fields", Toast.LENGTH_SHORT).show();
             }
@@ -143,13 +143,15 @@ public class ReportActivity extends AppCompatActivity {
     /**
      * Adds a new marker to the map and finishes the activity.
      *
+     * @param reportId     The document id of the queued report
      * @param incidentType The type of incident
      * @param title        The title of the incident
      * @param snippet      Additional details about the incident
      */
-    private void addNewMarkerAndFinish(String incidentType, String title, String snippet) {
+    private void addNewMarkerAndFinish(String reportId, String incidentType, String title, String snippet) {
         Intent resultIntent = new Intent();
         resultIntent.putExtra("action", "add_marker");
+        resultIntent.putExtra("reportId", reportId);
         resultIntent.putExtra("incidentType", incidentType);
         resultIntent.putExtra("title", title);
         resultIntent.putExtra("snippet", snippet);
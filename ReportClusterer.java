@@ -0,0 +1,180 @@
+package com.example.myapplication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * ReportClusterer merges user reports of the same type that were made close together in space
+ * and time into one aggregate report. The aggregate keeps the id and location of the first
+ * report, so its marker stays put, and shows the count and the latest snippet.
+ * Clusters are looked up in a {@link SpatialGridIndex}, so each report only compares against
+ * the clusters in its neighbouring cells.
+ */
+public final class ReportClusterer {
+    /**
+     * Default radius within which reports of the same type are merged, in meters.
+     */
+    public static final double MERGE_RADIUS_METERS = 200;
+
+    /**
+     * Default time window within which reports are merged, in milliseconds. A report joins a
+     * cluster if it was made within this window after the cluster's latest report.
+     */
+    public static final long MERGE_WINDOW_MS = 30 * 60 * 1000L;
+
+    /**
+     * Key of the number of reports merged into an aggregate. Absent on single reports.
+     */
+    public static final String KEY_REPORT_COUNT = "reportCount";
+
+    /**
+     * Key of the ids of the reports merged into an aggregate. Absent on single reports.
+     */
+    public static final String KEY_MERGED_IDS = "mergedIds";
+
+    private ReportClusterer() {
+    }
+
+    /**
+     * A group of merged reports.
+     */
+    private static class Cluster {
+        /** The first report of the cluster, which the aggregate is based on. */
+        final Map<String, Object> anchor;
+
+        /** The type of every report in the cluster. */
+        final Object type;
+
+        /** The latitude of the first report. */
+        final double latitude;
+
+        /** The longitude of the first report. */
+        final double longitude;
+
+        /** The most recent report of the cluster. */
+        Map<String, Object> latest;
+
+        /** The timestamp of the most recent report. */
+        long latestTimestamp;
+
+        /** Ids of the merged reports. */
+        final List<Object> ids = new ArrayList<>();
+
+        Cluster(Map<String, Object> anchor, double latitude, double longitude, long timestamp) {
+            this.anchor = anchor;
+            this.type = anchor.get("type");
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.latest = anchor;
+            this.latestTimestamp = timestamp;
+            ids.add(anchor.get(UserReportMarkerLayer.KEY_ID));
+        }
+    }
+
+    /**
+     * Merges reports using the default radius and time window.
+     *
+     * @param reports The reports to merge.
+     * @return The merged reports, oldest cluster first.
+     */
+    public static List<Map<String, Object>> merge(List<Map<String, Object>> reports) {
+        return merge(reports, MERGE_RADIUS_METERS, MERGE_WINDOW_MS);
+    }
+
+    /**
+     * Merges reports of the same type made within the given radius and time window.
+     * Reports without a valid location are passed through unchanged; reports without a
+     * timestamp count as made now.
+     *
+     * @param reports The reports to merge.
+     * @param radiusMeters The merge radius in meters.
+     * @param windowMs The merge window in milliseconds.
+     * @return The merged reports, oldest cluster first.
+     */
+    public static List<Map<String, Object>> merge(List<Map<String, Object>> reports, double radiusMeters, long windowMs) {
+        int n = reports.size();
+        if (n < 2) {
+            return reports;
+        }
+
+        long now = System.currentTimeMillis();
+        long[] timestamps = new long[n];
+        Integer[] order = new Integer[n];
+        double referenceLatitude = 0;
+        for (int i = 0; i < n; i++) {
+            Object timestamp = reports.get(i).get("timestamp");
+            timestamps[i] = timestamp instanceof Number ? ((Number) timestamp).longValue() : now;
+            order[i] = i;
+            if (referenceLatitude == 0) {
+                referenceLatitude = TrafficSnapshot.getDoubleValue(reports.get(i).get("latitude"));
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+
+        SpatialGridIndex grid = new SpatialGridIndex(radiusMeters, referenceLatitude);
+        List<Cluster> clusters = new ArrayList<>();
+        List<Map<String, Object>> merged = new ArrayList<>(n);
+        int[] best = new int[1];
+        float[] bestDistance = new float[1];
+
+        for (int index : order) {
+            Map<String, Object> report = reports.get(index);
+            double latitude = TrafficSnapshot.getDoubleValue(report.get("latitude"));
+            double longitude = TrafficSnapshot.getDoubleValue(report.get("longitude"));
+            if (latitude == 0 && longitude == 0) {
+                merged.add(report);
+                continue;
+            }
+            long timestamp = timestamps[index];
+            Object type = report.get("type");
+
+            best[0] = -1;
+            bestDistance[0] = Float.MAX_VALUE;
+            grid.forEachNear(latitude, longitude, id -> {
+                Cluster cluster = clusters.get(id);
+                if (!Objects.equals(cluster.type, type) || timestamp - cluster.latestTimestamp > windowMs) {
+                    return;
+                }
+                float distance = SpatialGridIndex.distanceMeters(latitude, longitude, cluster.latitude, cluster.longitude);
+                if (distance <= radiusMeters && distance < bestDistance[0]) {
+                    best[0] = id;
+                    bestDistance[0] = distance;
+                }
+            });
+
+            if (best[0] >= 0) {
+                Cluster cluster = clusters.get(best[0]);
+                cluster.latest = report;
+                cluster.latestTimestamp = timestamp;
+                cluster.ids.add(report.get(UserReportMarkerLayer.KEY_ID));
+            } else {
+                grid.insert(clusters.size(), latitude, longitude);
+                clusters.add(new Cluster(report, latitude, longitude, timestamp));
+            }
+        }
+
+        for (Cluster cluster : clusters) {
+            merged.add(toAggregate(cluster));
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the report shown for a cluster. Single reports are returned as they are.
+     */
+    private static Map<String, Object> toAggregate(Cluster cluster) {
+        if (cluster.ids.size() == 1) {
+            return cluster.anchor;
+        }
+        Map<String, Object> aggregate = new HashMap<>(cluster.anchor);
+        aggregate.put("snippet", cluster.latest.get("snippet"));
+        aggregate.put("timestamp", cluster.latestTimestamp);
+        aggregate.put(KEY_REPORT_COUNT, cluster.ids.size());
+        aggregate.put(KEY_MERGED_IDS, cluster.ids);
+        return aggregate;
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.myapplication;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReportDatabase stores user reports on the device, so the map can show the reports of any
+ * viewport from disk right after a restart. Reports are indexed by geohash, which turns a
+ * viewport into a few index range scans, and by timestamp for expiry.
+ * The database also records which geohash ranges have been fully fetched and, for each, the
+ * server-time watermark up to which it is current, so later fetches of a range only need the
+ * reports written in it since. Reports are never removed because a query stopped returning
+ * them; they are removed once they have expired.
+ * Methods block on disk access; call them through {@link #execute(Runnable)}.
+ */
+public class ReportDatabase extends SQLiteOpenHelper {
+    /**
+     * Filename of the database.
+     */
+    private static final String DATABASE_NAME = "reports.db";
+
+    /**
+     * Schema version of the database.
+     */
+    private static final int DATABASE_VERSION = 1;
+
+    /**
+     * Table holding the reports.
+     */
+    private static final String TABLE_REPORTS = "reports";
+
+    /**
+     * Table holding the geohash prefixes whose reports have been fetched in full, with the
+     * watermark of each.
+     */
+    private static final String TABLE_SYNCED_RANGES = "synced_ranges";
+
+    /**
+     * Maximum age of the user reports fetched, synced and kept on the device, in milliseconds.
+     * Older reports have expired whatever their type, so this is the longest report lifetime.
+     */
+    public static final long REPORT_WINDOW_MS = ValidityIndex.MAX_REPORT_TTL_MS;
+
+    /**
+     * Selection matching the reports past their lifetime, as {@link ValidityIndex#reportEndOf}
+     * computes it. Takes the oldest event timestamp and the oldest other timestamp to keep.
+     */
+    private static final String EXPIRED_SELECTION =
+            "(timestamp < ? OR (timestamp < ? AND (type IS NULL OR type <> 'event' COLLATE NOCASE)))";
+
+    /**
+     * Report field holding the server time of the last write, in milliseconds.
+     */
+    public static final String KEY_UPDATED_AT = "updatedAt";
+
+    /**
+     * Columns of the reports table, in the order they are read.
+     */
+    private static final String[] REPORT_COLUMNS = {
+            "id", "type", "title", "snippet", "latitude", "longitude", "geohash", "timestamp", "updatedAt", "userId"
+    };
+
+    /**
+     * The application-wide instance.
+     */
+    private static ReportDatabase instance;
+
+    /**
+     * Serial executor on which every database access runs.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Constructs a new ReportDatabase.
+     *
+     * @param context The application context.
+     */
+    private ReportDatabase(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the application-wide ReportDatabase.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared database.
+     */
+    public static synchronized ReportDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReportDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_REPORTS + " ("
+                + "id TEXT PRIMARY KEY, type TEXT, title TEXT, snippet TEXT, "
+                + "latitude REAL, longitude REAL, geohash TEXT, timestamp INTEGER, "
+                + "updatedAt INTEGER, userId TEXT)");
+        db.execSQL("CREATE INDEX idx_reports_geohash ON " + TABLE_REPORTS + " (geohash)");
+        db.execSQL("CREATE INDEX idx_reports_timestamp ON " + TABLE_REPORTS + " (timestamp)");
+        db.execSQL("CREATE TABLE " + TABLE_SYNCED_RANGES + " (prefix TEXT PRIMARY KEY, watermark INTEGER)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_REPORTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNCED_RANGES);
+        onCreate(db);
+    }
+
+    /**
+     * Runs a task on the database executor.
+     *
+     * @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Converts a report document into the map used by the app, with the document id under
+     * {@link UserReportMarkerLayer#KEY_ID} and the server write time in milliseconds.
+     *
+     * @param document The report document.
+     * @return The report.
+     */
+    public static Map<String, Object> fromDocument(DocumentSnapshot document) {
+        Map<String, Object> report = document.getData();
+        report.put(UserReportMarkerLayer.KEY_ID, document.getId());
+        Timestamp updatedAt = document.getTimestamp(KEY_UPDATED_AT);
+        if (updatedAt != null) {
+            report.put(KEY_UPDATED_AT, updatedAt.toDate().getTime());
+        } else {
+            report.remove(KEY_UPDATED_AT);
+        }
+        return report;
+    }
+
+    /**
+     * Inserts or replaces reports in one transaction. Reports without an id are skipped.
+     *
+     * @param reports The reports to store.
+     */
+    public void upsert(Collection<Map<String, Object>> reports) {
+        if (reports.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (Map<String, Object> report : reports) {
+                Object id = report.get(UserReportMarkerLayer.KEY_ID);
+                if (id == null) {
+                    continue;
+                }
+                values.clear();
+                values.put("id", id.toString());
+                values.put("type", stringValue(report.get("type")));
+                values.put("title", stringValue(report.get("title")));
+                values.put("snippet", stringValue(report.get("snippet")));
+                values.put("latitude", doubleValue(report.get("latitude")));
+                values.put("longitude", doubleValue(report.get("longitude")));
+                values.put("geohash", stringValue(report.get("geohash")));
+                values.put("timestamp", longValue(report.get("timestamp")));
+                values.put("updatedAt", longValue(report.get(KEY_UPDATED_AT)));
+                values.put("userId", stringValue(report.get("userId")));
+                db.insertWithOnConflict(TABLE_REPORTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes reports by id in one transaction.
+     *
+     * @param ids The ids of the reports to delete.
+     */
+    public void delete(Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String id : ids) {
+                db.delete(TABLE_REPORTS, "id = ?", new String[]{id});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes every report that has expired.
+     *
+     * @param now The current time in milliseconds.
+     * @return The number of deleted reports.
+     */
+    public int deleteExpired(long now) {
+        return getWritableDatabase().delete(TABLE_REPORTS, EXPIRED_SELECTION, expiredArgs(now));
+    }
+
+    /**
+     * Returns the stored reports inside the given geohash ranges that have not expired, using
+     * one index range scan per prefix.
+     *
+     * @param prefixes The geohash prefixes to read.
+     * @param now The current time in milliseconds.
+     * @return The reports, without duplicates.
+     */
+    public List<Map<String, Object>> queryPrefixes(List<String> prefixes, long now) {
+        SQLiteDatabase db = getReadableDatabase();
+        Map<String, Map<String, Object>> reports = new LinkedHashMap<>();
+        String[] expired = expiredArgs(now);
+        for (String prefix : prefixes) {
+            try (Cursor cursor = db.query(TABLE_REPORTS, REPORT_COLUMNS,
+                    "geohash >= ? AND geohash < ? AND NOT " + EXPIRED_SELECTION,
+                    new String[]{prefix, prefix + GeoHash.RANGE_END_SUFFIX, expired[0], expired[1]},
+                    null, null, null)) {
+                while (cursor.moveToNext()) {
+                    Map<String, Object> report = readReport(cursor);
+                    reports.put((String) report.get(UserReportMarkerLayer.KEY_ID), report);
+                }
+            }
+        }
+        return new ArrayList<>(reports.values());
+    }
+
+    /**
+     * Returns the geohash prefixes whose reports have been fetched in full, with the server
+     * time up to which each is current.
+     *
+     * @return The watermark in milliseconds of each synced prefix.
+     */
+    public Map<String, Long> getSyncedRanges() {
+        Map<String, Long> ranges = new HashMap<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(
+                "SELECT prefix, watermark FROM " + TABLE_SYNCED_RANGES, null)) {
+            while (cursor.moveToNext()) {
+                ranges.put(cursor.getString(0), cursor.getLong(1));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Records that the reports of the given geohash ranges are current up to a server time.
+     *
+     * @param watermarks The watermark in milliseconds of each fetched prefix.
+     */
+    public void markRangesSynced(Map<String, Long> watermarks) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Long> entry : watermarks.entrySet()) {
+                values.clear();
+                values.put("prefix", entry.getKey());
+                values.put("watermark", entry.getValue());
+                db.insertWithOnConflict(TABLE_SYNCED_RANGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forgets the synced ranges whose watermark is older than the cutoff, so they are fetched
+     * in full again.
+     *
+     * @param cutoff The oldest watermark to keep, in milliseconds.
+     */
+    public void forgetRangesSyncedBefore(long cutoff) {
+        getWritableDatabase().delete(TABLE_SYNCED_RANGES, "watermark < ?", new String[]{String.valueOf(cutoff)});
+    }
+
+    /**
+     * Returns the arguments of {@link #EXPIRED_SELECTION} at a given time.
+     */
+    private static String[] expiredArgs(long now) {
+        return new String[]{
+                String.valueOf(now - ValidityIndex.EVENT_REPORT_TTL_MS),
+                String.valueOf(now - ValidityIndex.REPORT_TTL_MS)
+        };
+    }
+
+    /**
+     * Reads the report at the cursor's current row.
+     */
+    private static Map<String, Object> readReport(Cursor cursor) {
+        Map<String, Object> report = new HashMap<>();
+        report.put(UserReportMarkerLayer.KEY_ID, cursor.getString(0));
+        report.put("type", cursor.getString(1));
+        report.put("title", cursor.getString(2));
+        report.put("snippet", cursor.getString(3));
+        report.put("latitude", cursor.getDouble(4));
+        report.put("longitude", cursor.getDouble(5));
+        report.put("geohash", cursor.getString(6));
+        report.put("timestamp", cursor.getLong(7));
+        if (!cursor.isNull(8)) {
+            report.put(KEY_UPDATED_AT, cursor.getLong(8));
+        }
+        report.put("userId", cursor.getString(9));
+        return report;
+    }
+
+    /**
+     * Returns the value as a string, or null.
+     */
+    private static String stringValue(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Returns the value as a Double, or null if it is not a number.
+     */
+    private static Double doubleValue(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : null;
+    }
+
+    /**
+     * Returns the value as a Long, or null if it is not a number.
+     */
+    private static Long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+}
@@ -0,0 +1,443 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ReportOutbox queues report submissions in a local file and writes them to Firestore in
+ * transactions. Each transaction creates the queued reports and awards their points through
+ * {@link PointsCounter} together, so a report is never stored without its points or the other
+ * way round. Reports are keyed by their pre-generated id, and a report that already exists
+ * is skipped, so a batch retried after a lost acknowledgement awards its points once.
+ * Only the reports of the signed-in user are written; those of other users wait until they
+ * sign in again. Failed batches are retried with exponential backoff, also across app
+ * restarts. Reports Firestore rejects, or that keep failing while online, are dropped.
+ * All methods must be called on the main thread.
+ */
+public class ReportOutbox {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "ReportOutbox";
+
+    /**
+     * Filename of the local outbox file.
+     */
+    private static final String OUTBOX_FILE = "report_outbox.json";
+
+    /**
+     * Maximum number of reports written in one transaction. Each report adds one read, one
+     * write and at most one shard increment, well below Firestore's limit of 500 writes.
+     */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    /**
+     * Points awarded for each submitted report.
+     */
+    public static final long POINTS_PER_REPORT = 2L;
+
+    /**
+     * Delay before the first retry of a failed batch, in milliseconds.
+     */
+    private static final long INITIAL_BACKOFF_MS = 2_000L;
+
+    /**
+     * Upper bound on the delay between retries, in milliseconds.
+     */
+    private static final long MAX_BACKOFF_MS = 5 * 60_000L;
+
+    /**
+     * Number of failed attempts while online after which a report is dropped.
+     */
+    private static final int MAX_ATTEMPTS = 20;
+
+    /**
+     * The application-wide instance.
+     */
+    private static ReportOutbox instance;
+
+    /**
+     * A report waiting to be written to Firestore.
+     */
+    public static class PendingReport {
+        /** Pre-generated Firestore document id, which makes retried writes idempotent. */
+        String id;
+
+        /** Id of the reporting user. */
+        String userId;
+
+        /** The type of incident being reported. */
+        String type;
+
+        /** The title of the incident report. */
+        String title;
+
+        /** Additional details about the incident. */
+        String snippet;
+
+        /** The latitude of the incident location. */
+        double latitude;
+
+        /** The longitude of the incident location. */
+        double longitude;
+
+        /** Geohash of the incident location. */
+        String geohash;
+
+        /** Submission time in milliseconds since the epoch. */
+        long timestamp;
+
+        /** Number of failed write attempts while online. */
+        int attempts;
+
+        /**
+         * Returns the report as stored in the Reports collection.
+         *
+         * @return The Firestore document data of the report.
+         */
+        Map<String, Object> toDocument() {
+            Map<String, Object> report = new HashMap<>();
+            report.put("type", type);
+            report.put("title", title);
+            report.put("snippet", snippet);
+            report.put("latitude", latitude);
+            report.put("longitude", longitude);
+            report.put("geohash", geohash);
+            report.put("timestamp", timestamp);
+            report.put("userId", userId);
+            report.put(ReportDatabase.KEY_UPDATED_AT, FieldValue.serverTimestamp());
+            return report;
+        }
+    }
+
+    /**
+     * Context used for reading and writing the outbox file.
+     */
+    private final Context context;
+
+    /**
+     * FirebaseFirestore instance for database operations.
+     */
+    private final FirebaseFirestore db;
+
+    /**
+     * FirebaseAuth instance identifying the user whose reports are written.
+     */
+    private final FirebaseAuth auth;
+
+    /**
+     * Gson instance used to persist the outbox.
+     */
+    private final Gson gson = new Gson();
+
+    /**
+     * Handler on the main thread, used to schedule retries.
+     */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Executor on which the outbox file is read and written.
+     */
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Reports waiting to be written, oldest first.
+     */
+    private final List<PendingReport> pending = new ArrayList<>();
+
+    /**
+     * Whether a batch is currently being written.
+     */
+    private boolean flushing;
+
+    /**
+     * Delay before the next retry, doubled after each failed batch.
+     */
+    private long backoffMs = INITIAL_BACKOFF_MS;
+
+    /**
+     * Maximum number of reports in the next transaction. Lowered to one after Firestore
+     * rejected a batch, so the rejected report can be found and dropped.
+     */
+    private int batchLimit = MAX_BATCH_SIZE;
+
+    /**
+     * Runnable that flushes the outbox, used for scheduled retries.
+     */
+    private final Runnable flushRunnable = this::flush;
+
+    /**
+     * Constructs a new ReportOutbox, loads the reports left over from earlier runs and
+     * writes the queued reports of each user who signs in.
+     *
+     * @param context The application context.
+     */
+    private ReportOutbox(Context context) {
+        this.context = context;
+        this.db = FirebaseFirestore.getInstance();
+        this.auth = FirebaseAuth.getInstance();
+        auth.addAuthStateListener(firebaseAuth -> flush());
+        ioExecutor.execute(() -> {
+            List<PendingReport> stored = readFromFile();
+            handler.post(() -> restore(stored));
+        });
+    }
+
+    /**
+     * Returns the application-wide ReportOutbox.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared outbox.
+     */
+    public static ReportOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReportOutbox(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns a new document id for a report, so the report can be referenced before it is written.
+     *
+     * @return A unique Reports document id.
+     */
+    public String newReportId() {
+        return db.collection("Reports").document().getId();
+    }
+
+    /**
+     * Queues a report and starts writing it. Returns at once; the report is kept locally
+     * until Firestore has accepted it.
+     *
+     * @param report The report to write.
+     */
+    public void enqueue(PendingReport report) {
+        pending.add(report);
+        persist();
+        flush();
+    }
+
+    /**
+     * Returns the number of reports waiting to be written.
+     *
+     * @return The number of queued reports.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Adds the reports loaded from the outbox file to the queue and starts writing them.
+     */
+    private void restore(List<PendingReport> stored) {
+        Set<String> queued = new HashSet<>();
+        for (PendingReport report : pending) {
+            queued.add(report.id);
+        }
+        List<PendingReport> restored = new ArrayList<>();
+        for (PendingReport report : stored) {
+            if (!queued.contains(report.id)) {
+                restored.add(report);
+            }
+        }
+        if (!restored.isEmpty()) {
+            Log.d(TAG, "Restored " + restored.size() + " queued reports");
+            pending.addAll(0, restored);
+            persist();
+        }
+        flush();
+    }
+
+    /**
+     * Writes the oldest queued reports of the signed-in user in one transaction, creating
+     * each report and awarding its points. Reports that are already stored, whether restored
+     * from the outbox file or retried after a lost acknowledgement, are skipped together with
+     * their points. The points are added with one shard increment per transaction.
+     */
+    private void flush() {
+        if (flushing) {
+            return;
+        }
+        FirebaseUser user = auth.getCurrentUser();
+        if (user == null) {
+            return;
+        }
+        List<PendingReport> batchReports = new ArrayList<>();
+        for (PendingReport report : pending) {
+            if (user.getUid().equals(report.userId)) {
+                batchReports.add(report);
+                if (batchReports.size() == batchLimit) {
+                    break;
+                }
+            }
+        }
+        if (batchReports.isEmpty()) {
+            batchLimit = MAX_BATCH_SIZE;
+            return;
+        }
+        flushing = true;
+        handler.removeCallbacks(flushRunnable);
+
+        db.runTransaction(transaction -> {
+                    // Firestore requires all reads of a transaction before its writes.
+                    List<PendingReport> unwritten = new ArrayList<>();
+                    for (PendingReport report : batchReports) {
+                        DocumentReference ref = db.collection("Reports").document(report.id);
+                        if (!transaction.get(ref).exists()) {
+                            unwritten.add(report);
+                        }
+                    }
+                    Map<String, Long> pointsByUser = new HashMap<>();
+                    for (PendingReport report : unwritten) {
+                        transaction.set(db.collection("Reports").document(report.id), report.toDocument());
+                        Long points = pointsByUser.get(report.userId);
+                        pointsByUser.put(report.userId, (points != null ? points : 0L) + POINTS_PER_REPORT);
+                    }
+                    for (Map.Entry<String, Long> entry : pointsByUser.entrySet()) {
+                        PointsCounter.increment(db, transaction, entry.getKey(), entry.getValue());
+                    }
+                    return unwritten.size();
+                })
+                .addOnSuccessListener(written -> {
+                    Log.d(TAG, "Wrote " + written + " of " + batchReports.size() + " reports");
+                    pending.removeAll(batchReports);
+                    persist();
+                    backoffMs = INITIAL_BACKOFF_MS;
+                    onBatchDone();
+                })
+                .addOnFailureListener(e -> onBatchFailed(batchReports, e));
+    }
+
+    /**
+     * Continues with the next batch after a batch has been handled.
+     */
+    private void onBatchDone() {
+        flushing = false;
+        flush();
+    }
+
+    /**
+     * Handles a failed batch. A batch Firestore rejected is written again one report at a
+     * time, and a single rejected report is dropped. Other failures are retried with backoff;
+     * failures while online count as attempts, and reports reaching {@link #MAX_ATTEMPTS}
+     * are dropped.
+     */
+    private void onBatchFailed(List<PendingReport> batchReports, Exception e) {
+        flushing = false;
+        if (isRejected(e)) {
+            if (batchReports.size() > 1) {
+                Log.w(TAG, "Batch rejected, writing reports one at a time", e);
+                batchLimit = 1;
+            } else {
+                Log.e(TAG, "Dropping rejected report " + batchReports.get(0).id, e);
+                pending.removeAll(batchReports);
+                persist();
+            }
+            flush();
+            return;
+        }
+
+        if (!isOffline(e)) {
+            List<PendingReport> exhausted = new ArrayList<>();
+            for (PendingReport report : batchReports) {
+                report.attempts++;
+                if (report.attempts >= MAX_ATTEMPTS) {
+                    exhausted.add(report);
+                }
+            }
+            if (!exhausted.isEmpty()) {
+                Log.e(TAG, "Dropping " + exhausted.size() + " reports after " + MAX_ATTEMPTS + " attempts", e);
+                pending.removeAll(exhausted);
+            }
+        }
+        persist();
+        Log.w(TAG, "Writing reports failed, retrying in " + backoffMs + " ms", e);
+        handler.postDelayed(flushRunnable, backoffMs);
+        backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    /**
+     * Returns whether Firestore rejected a write for a reason retrying cannot fix, such as
+     * invalid data or a security rule denying it.
+     */
+    private static boolean isRejected(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case INVALID_ARGUMENT:
+            case PERMISSION_DENIED:
+            case OUT_OF_RANGE:
+            case UNIMPLEMENTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether a write failed because Firestore could not be reached. Such failures
+     * are retried without limit, since the outbox exists to outlast being offline.
+     */
+    private static boolean isOffline(Exception e) {
+        return e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.UNAVAILABLE;
+    }
+
+    /**
+     * Saves a copy of the queue to the outbox file on the io executor.
+     */
+    private void persist() {
+        String json = gson.toJson(new ArrayList<>(pending));
+        ioExecutor.execute(() -> {
+            try (FileOutputStream fos = context.openFileOutput(OUTBOX_FILE, Context.MODE_PRIVATE)) {
+                fos.write(json.getBytes(StandardCharsets.UTF_8));
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving outbox", e);
+            }
+        });
+    }
+
+    /**
+     * Reads the queue from the outbox file.
+     *
+     * @return The stored reports, or an empty list if there is no outbox file.
+     */
+    private List<PendingReport> readFromFile() {
+        try (FileInputStream fis = context.openFileInput(OUTBOX_FILE);
+             Reader reader = new InputStreamReader(fis, StandardCharsets.UTF_8)) {
+            Type type = new TypeToken<List<PendingReport>>(){}.getType();
+            List<PendingReport> stored = gson.fromJson(reader, type);
+            return stored != null ? stored : new ArrayList<>();
+        } catch (java.io.FileNotFoundException e) {
+            return new ArrayList<>();
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading outbox", e);
+            return new ArrayList<>();
+        }
+    }
+}
@@ -6,22 +6,18 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * ReportViewModel handles the business logic for submitting incident reports.
- * It communicates with FirebaseAuth and FirebaseFirestore to manage user points and store reports.
+ * Reports are handed to the {@link ReportOutbox}, which stores them together with the
+ * user's points in one batched Firestore write, also when the device is offline.
  */
 public class ReportViewModel extends AndroidViewModel {
     /** Firebase Authentication instance for user authentication. */
     private final FirebaseAuth mAuth;
 
-    /** FirebaseFirestore instance for database operations. */
-    private final FirebaseFirestore db;
+    /** Persistent queue writing reports and points to Firestore. */
+    private final ReportOutbox outbox;
 
     /** LiveData to track the submission status of a report. */
     private final MutableLiveData<Boolean> isSubmitting = new MutableLiveData<>(false);
@@ -35,8 +31,8 @@ public class ReportViewModel extends AndroidViewModel {
     /**
      * Constructs a new ReportViewModel.
      *
-     * This constructor initializes the ViewModel with instances of FirebaseAuth
-     * and FirebaseFirestore for user authentication and data storage respectively.
+     * This constructor initializes the ViewModel with the FirebaseAuth instance
+     * for user authentication and the shared ReportOutbox for data storage.
      * It also sets up MutableLiveData objects for tracking report submission status,
      * error messages, and submission success.
      *
@@ -47,7 +43,7 @@ public class ReportViewModel extends AndroidViewModel {
     public ReportViewModel(Application application) {
         super(application);
         mAuth = FirebaseAuth.getInstance();
-        db = FirebaseFirestore.getInstance();
+        outbox = ReportOutbox.getInstance(application);
     }
 
     /**
@@ -79,57 +75,38 @@ public class ReportViewModel extends AndroidViewModel {
     }
 
     /**
-     * Submits a new incident report and updates the user's points.
+     * Submits a new incident report and updates the user's points. The report is queued
+     * locally and written in the background, so this returns without waiting on the network.
      *
      * @param incidentType The type of incident being reported
      * @param title        The title of the incident report
      * @param snippet      Additional details about the incident
      * @param latitude     The latitude of the incident location
      * @param longitude    The longitude of the incident location
+     * @return The document id of the queued report, or null if no user is signed in
      */
-    public void submitReport(String incidentType, String title, String snippet, double latitude, double longitude) {
+    public String submitReport(String incidentType, String title, String snippet, double latitude, double longitude) {
         FirebaseUser user = mAuth.getCurrentUser();
-        if (user != null) {
-            isSubmitting.setValue(true);
-            String userId = user.getUid();
-
-            db.runTransaction(transaction -> {
-                DocumentReference userRef = db.collection("Users").document(userId);
-                DocumentSnapshot snapshot = transaction.get(userRef);
-
-                if (!snapshot.exists()) {
-                    Map<String, Object> newUser = new HashMap<>();
-                    newUser.put("points", 2L);
-                    transaction.set(userRef, newUser);
-                } else {
-                    Long currentPoints = snapshot.getLong("points");
-                    if (currentPoints == null) {
-                        currentPoints = 0L;
-                    }
-                    long newPoints = currentPoints + 2;
-                    transaction.update(userRef, "points", newPoints);
-                }
-
-                Map<String, Object> report = new HashMap<>();
-                report.put("type", incidentType);
-                report.put("title", title);
-                report.put("snippet", snippet);
-                report.put("latitude", latitude);
-                report.put("longitude", longitude);
-                report.put("timestamp", System.currentTimeMillis());
-                report.put("userId", userId);
-
-                db.collection("Reports").add(report);
-                return null;
-            }).addOnSuccessListener(aVoid -> {
-                isSubmitting.postValue(false);
-                submissionSuccessful.postValue(true);
-            }).addOnFailureListener(e -> {
-                isSubmitting.postValue(false);
-                errorMessage.postValue("Failed to submit report: " + e.getMessage());
-            });
-        } else {
-            errorMessage.postValue("Please sign in to submit reports");
+        if (user == null) {
+            errorMessage.setValue("Please sign in to submit reports");
+            return null;
         }
+
+        isSubmitting.setValue(true);
+        ReportOutbox.PendingReport report = new ReportOutbox.PendingReport();
+        report.id = outbox.newReportId();
+        report.userId = user.getUid();
+        report.type = incidentType;
+        report.title = title;
+        report.snippet = snippet;
+        report.latitude = latitude;
+        report.longitude = longitude;
+        report.geohash = GeoHash.encode(latitude, longitude, GeoHash.STORAGE_PRECISION);
+        report.timestamp = System.currentTimeMillis();
+        outbox.enqueue(report);
+
+        isSubmitting.setValue(false);
+        submissionSuccessful.setValue(true);
+        return report.id;
     }
 }
\ No newline at end of file
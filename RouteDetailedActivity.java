@@ -1,10 +1,13 @@
 package com.example.myapplication;
 
+import android.Manifest;
+import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.widget.Button;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.lifecycle.ViewModelProvider;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -15,6 +18,7 @@ import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 import com.google.android.gms.maps.model.Marker;
 
@@ -51,6 +55,30 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
     /** Marker object representing the estimated time marker on the map. */
     private Marker timeMarker;
 
+    /** Polyline drawing the route on the map. */
+    private Polyline routePolyline;
+
+    /** The route path at each level of detail. */
+    private SimplifiedPolyline routeLevels;
+
+    /** The level of detail currently drawn, or -1 if no route is drawn. */
+    private int routeLevel = -1;
+
+    /** The route options, best ranked first. */
+    private List<RouteOption> rankedOptions = new ArrayList<>();
+
+    /** Clickable polylines drawing every route option underneath the selected route. */
+    private List<Polyline> alternativePolylines = new ArrayList<>();
+
+    /** The level of detail at which the alternatives are drawn. */
+    private int alternativeLevel = -1;
+
+    /** Navigation location stream following the device along the route while in the foreground. */
+    private LocationStream locationStream;
+
+    /** Marker showing the position of the device snapped to the route and the progress along it. */
+    private Marker progressMarker;
+
     /**
      * Initializes the activity, sets up the layout, and prepares the map.
      *
@@ -63,6 +91,7 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
         setContentView(R.layout.activity_route_detailed);
 
         initializeViewModels();
+        locationStream = new LocationStream(this, location -> viewModel.updateLocation(location), true);
         getIntentExtras();
         initializeMap();
         setupBackButton();
@@ -119,8 +148,11 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
      * This includes route path, estimated time, error messages, and incident data.
      */
     private void setupObservers() {
-        viewModel.getRoutePath().observe(this, this::drawPolyline);
+        viewModel.getRouteLevels().observe(this, this::drawPolyline);
+        viewModel.getRouteOptions().observe(this, this::drawAlternatives);
+        viewModel.getRouteBounds().observe(this, this::positionCamera);
         viewModel.getEstimatedTime().observe(this, this::showEstimatedTime);
+        viewModel.getRouteProgress().observe(this, this::showProgress);
         viewModel.getErrorMessage().observe(this, message ->
                 Toast.makeText(this, message, Toast.LENGTH_SHORT).show());
         viewModel.getIncidentData().observe(this, this::addIncidentMarkers);
@@ -135,11 +167,43 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
     @Override
     public void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
+        mMap.setOnCameraIdleListener(this::updateRouteDetail);
+        mMap.setOnPolylineClickListener(this::onRoutePolylineClick);
         addSourceAndDestinationMarkers();
         viewModel.calculateDirections(sourceLatLng, destinationLatLng);
         viewModel.loadIncidentData();
     }
 
+    /**
+     * Starts following the device along the route when the activity comes to the foreground.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        startLocationUpdates();
+    }
+
+    /**
+     * Stops the location updates when the activity leaves the foreground.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        locationStream.stop();
+    }
+
+    /**
+     * Starts the navigation location stream, which requests precise, frequent updates, if the
+     * fine location permission has been granted. Without it, the route is shown without progress.
+     */
+    private void startLocationUpdates() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        locationStream.start();
+    }
+
     /**
      * Adds markers for the source and destination points on the map.
      */
@@ -151,27 +215,96 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
     }
 
     /**
-     * Draws the route polyline on the map and positions the camera to show the entire route.
+     * Draws the route polyline on the map at the level of detail of the current zoom.
      *
-     * @param path List of LatLng points representing the route.
+     * @param levels The route path at each level of detail.
      */
-    private void drawPolyline(List<LatLng> path) {
-        PolylineOptions opts = new PolylineOptions().addAll(path).color(Color.BLUE).width(5);
-        mMap.addPolyline(opts);
-        positionCamera(path);
+    private void drawPolyline(SimplifiedPolyline levels) {
+        if (routePolyline != null) {
+            routePolyline.remove();
+        }
+        routeLevels = levels;
+        routeLevel = levels.getLevel(mMap.getCameraPosition().zoom);
+        PolylineOptions opts = new PolylineOptions().addAll(levels.getPath(routeLevel)).color(Color.BLUE).width(5)
+                .zIndex(1);
+        routePolyline = mMap.addPolyline(opts);
     }
 
     /**
-     * Positions the camera to show the entire route.
+     * Draws every route option as a grey clickable polyline underneath the selected route,
+     * so the user can tap one to compare it.
      *
-     * @param path List of LatLng points representing the route.
+     * @param options The route options, best ranked first.
      */
-    private void positionCamera(List<LatLng> path) {
-        LatLngBounds.Builder builder = new LatLngBounds.Builder();
-        for (LatLng latLng : path) {
-            builder.include(latLng);
+    private void drawAlternatives(List<RouteOption> options) {
+        boolean firstRanking = rankedOptions.isEmpty();
+        for (Polyline polyline : alternativePolylines) {
+            polyline.remove();
+        }
+        alternativePolylines.clear();
+        rankedOptions = options;
+        if (options.size() < 2) {
+            return;
+        }
+        alternativeLevel = options.get(0).levels.getLevel(mMap.getCameraPosition().zoom);
+        for (RouteOption option : options) {
+            Polyline polyline = mMap.addPolyline(new PolylineOptions()
+                    .addAll(option.levels.getPath(alternativeLevel))
+                    .color(Color.GRAY).width(5).clickable(true).zIndex(0));
+            polyline.setTag(option);
+            alternativePolylines.add(polyline);
+        }
+        if (firstRanking) {
+            Toast.makeText(this, options.size() + " routes found, ranked by traffic along the way. "
+                    + "Tap a grey route to compare.", Toast.LENGTH_LONG).show();
         }
-        LatLngBounds bounds = builder.build();
+    }
+
+    /**
+     * Selects the route option of a tapped alternative polyline and describes it.
+     *
+     * @param polyline The tapped polyline.
+     */
+    private void onRoutePolylineClick(Polyline polyline) {
+        if (!(polyline.getTag() instanceof RouteOption)) {
+            return;
+        }
+        RouteOption option = (RouteOption) polyline.getTag();
+        viewModel.selectRoute(option);
+        Toast.makeText(this, option.describe(rankedOptions.indexOf(option) + 1, rankedOptions.size()),
+                Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Swaps the route and alternative polylines to the level of detail of the current zoom,
+     * once the camera has stopped moving.
+     */
+    private void updateRouteDetail() {
+        float zoom = mMap.getCameraPosition().zoom;
+        if (routeLevels != null && routePolyline != null) {
+            int level = routeLevels.getLevel(zoom);
+            if (level != routeLevel) {
+                routeLevel = level;
+                routePolyline.setPoints(routeLevels.getPath(level));
+            }
+        }
+        if (!alternativePolylines.isEmpty()) {
+            int level = rankedOptions.get(0).levels.getLevel(zoom);
+            if (level != alternativeLevel) {
+                alternativeLevel = level;
+                for (Polyline polyline : alternativePolylines) {
+                    polyline.setPoints(((RouteOption) polyline.getTag()).levels.getPath(level));
+                }
+            }
+        }
+    }
+
+    /**
+     * Positions the camera to show the entire route.
+     *
+     * @param bounds The bounding box of the route, computed while decoding it.
+     */
+    private void positionCamera(LatLngBounds bounds) {
         mMap.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, 100));
     }
 
@@ -196,6 +329,31 @@ public class RouteDetailedActivity extends AppCompatActivity implements OnMapRea
         }
     }
 
+    /**
+     * Shows the progress along the route with a marker at the snapped position, whose info
+     * window lists the distance and time left and the traffic items ahead.
+     *
+     * @param progress The progress along the route.
+     */
+    private void showProgress(RouteProgressTracker.Progress progress) {
+        if (mMap == null) {
+            return;
+        }
+        String itemsAhead = progress.describeItemsAhead();
+        String snippet = itemsAhead.isEmpty() ? "No incidents ahead" : itemsAhead;
+        if (progressMarker == null) {
+            progressMarker = mMap.addMarker(new MarkerOptions()
+                    .position(progress.position)
+                    .title(progress.summary())
+                    .snippet(snippet)
+                    .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_GREEN)));
+        } else {
+            progressMarker.setPosition(progress.position);
+            progressMarker.setTitle(progress.summary());
+            progressMarker.setSnippet(snippet);
+        }
+    }
+
     /**
      * Adds incident markers to the map based on the provided incident data.
      *
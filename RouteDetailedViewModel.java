@@ -1,58 +1,105 @@
 package com.example.myapplication;
 
 import android.app.Application;
+import android.location.Location;
 import android.util.Log;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
 import com.google.android.gms.maps.model.LatLng;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.google.android.gms.maps.model.LatLngBounds;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * RouteDetailedViewModel handles the business logic for route calculations and incident data retrieval.
- * It communicates with Google Maps API for directions and TrafficDataRepository for incident data.
+ * It gets directions from the shared DirectionsService and incident data from TrafficDataRepository.
  */
 public class RouteDetailedViewModel extends AndroidViewModel {
 
     /** Tag for logging purposes. */
     private static final String TAG = "RouteDetailedViewModel";
 
+    /** Maximum number of stops planned at once. The number of legs grows with its square. */
+    public static final int MAX_STOPS = 6;
+
     /** LiveData to hold the list of LatLng points representing the route path. */
     private final MutableLiveData<List<LatLng>> routePath = new MutableLiveData<>();
 
+    /** LiveData to hold the route path at each zoom-dependent level of detail. */
+    private final MutableLiveData<SimplifiedPolyline> routeLevels = new MutableLiveData<>();
+
+    /** LiveData to hold the bounding box of the route path, computed while decoding. */
+    private final MutableLiveData<LatLngBounds> routeBounds = new MutableLiveData<>();
+
+    /** LiveData to hold the route options, ranked by their travel time adjusted for traffic items. */
+    private final MutableLiveData<List<RouteOption>> routeOptions = new MutableLiveData<>();
+
+    /** LiveData to hold the route option currently shown as the route. */
+    private final MutableLiveData<RouteOption> selectedOption = new MutableLiveData<>();
+
     /** LiveData to hold the estimated time for the route. */
     private final MutableLiveData<String> estimatedTime = new MutableLiveData<>();
 
+    /** LiveData to hold the progress of the user along the selected route. */
+    private final MutableLiveData<RouteProgressTracker.Progress> routeProgress = new MutableLiveData<>();
+
+    /** LiveData to hold the legs between the stops of a planned trip and their best order. */
+    private final MutableLiveData<RouteMatrix> routeMatrix = new MutableLiveData<>();
+
     /** LiveData to hold any error messages during route calculation or data retrieval. */
     private final MutableLiveData<String> errorMessage = new MutableLiveData<>();
 
     /** LiveData to hold the list of incident data along the route. */
     private final MutableLiveData<List<Map<String, Object>>> incidentData = new MutableLiveData<>();
 
-    /** Volley RequestQueue for making network requests. */
-    private final RequestQueue requestQueue;
-
     /** Repository for fetching traffic data. */
     private final TrafficDataRepository trafficDataRepository;
 
+    /** Decoder for route polylines, reused so its buffers are only allocated once. Only used on the route executor. */
+    private final PolylineDecoder polylineDecoder = new PolylineDecoder();
+
+    /** Application-wide service fetching, caching and prefetching routes. */
+    private final DirectionsService directionsService;
+
+    /** Background executor that simplifies and scores route paths. */
+    private final ExecutorService routeExecutor = Executors.newSingleThreadExecutor();
+
+    /** The ranked route options. Only accessed on the route executor. */
+    private List<RouteOption> options = new ArrayList<>();
+
+    /** The option shown as the route, or null. Only accessed on the route executor. */
+    private RouteOption selected;
+
+    /** Delays applied to the ETA for each category of traffic item. */
+    private final EtaEngine.DelayModel delayModel = EtaEngine.DelayModel.defaults();
+
+    /** ETA engines of the options, by response index. Only accessed on the route executor. */
+    private final Map<Integer, EtaEngine> etaEngines = new HashMap<>();
+
+    /** Tracker of the progress along the selected option, or null. Only accessed on the route executor. */
+    private RouteProgressTracker progressTracker;
+
+    /** Number of trips planned so far, so legs of a superseded plan are ignored. Only accessed on the main thread. */
+    private int planGeneration;
+
+    /** Route callbacks still waiting for the shared DirectionsService. Only accessed on the main thread. */
+    private final List<DirectionsService.RouteCallback> pendingRouteCallbacks = new ArrayList<>();
+
     /**
      * Constructs a new RouteDetailedViewModel.
      *
-     * This constructor initializes the ViewModel with a Volley RequestQueue for making
-     * network requests and a TrafficDataRepository for fetching traffic data. It also
+     * This constructor initializes the ViewModel with the shared DirectionsService for
+     * routes and a TrafficDataRepository for fetching traffic data. It also
      * sets up MutableLiveData objects for route path, estimated time, error messages,
      * and incident data.
      *
@@ -63,8 +110,8 @@ public class RouteDetailedViewModel extends AndroidViewModel {
      */
     public RouteDetailedViewModel(Application application, TrafficDataRepository trafficDataRepository) {
         super(application);
-        this.requestQueue = Volley.newRequestQueue(application);
         this.trafficDataRepository = trafficDataRepository;
+        this.directionsService = DirectionsService.getInstance(application);
     }
 
     /**
@@ -76,6 +123,42 @@ public class RouteDetailedViewModel extends AndroidViewModel {
         return routePath;
     }
 
+    /**
+     * Returns a LiveData object containing the route path at each level of detail.
+     *
+     * @return LiveData<SimplifiedPolyline> The route levels.
+     */
+    public LiveData<SimplifiedPolyline> getRouteLevels() {
+        return routeLevels;
+    }
+
+    /**
+     * Returns a LiveData object containing the bounding box of the route path.
+     *
+     * @return LiveData<LatLngBounds> The route bounds.
+     */
+    public LiveData<LatLngBounds> getRouteBounds() {
+        return routeBounds;
+    }
+
+    /**
+     * Returns a LiveData object containing the route options, best ranked first.
+     *
+     * @return LiveData<List<RouteOption>> The ranked route options.
+     */
+    public LiveData<List<RouteOption>> getRouteOptions() {
+        return routeOptions;
+    }
+
+    /**
+     * Returns a LiveData object containing the route option shown as the route.
+     *
+     * @return LiveData<RouteOption> The selected route option.
+     */
+    public LiveData<RouteOption> getSelectedOption() {
+        return selectedOption;
+    }
+
     /**
      * Returns a LiveData object containing the estimated time for the route.
      *
@@ -85,6 +168,26 @@ public class RouteDetailedViewModel extends AndroidViewModel {
         return estimatedTime;
     }
 
+    /**
+     * Returns a LiveData object containing the progress of the user along the selected route.
+     *
+     * @return LiveData<RouteProgressTracker.Progress> The route progress.
+     */
+    public LiveData<RouteProgressTracker.Progress> getRouteProgress() {
+        return routeProgress;
+    }
+
+    /**
+     * Returns a LiveData object containing the legs of the planned trip and their best order.
+     * It only emits after {@link #planStops}; no screen plans stops yet, so nothing observes
+     * it in the app today.
+     *
+     * @return LiveData<RouteMatrix> The route matrix.
+     */
+    public LiveData<RouteMatrix> getRouteMatrix() {
+        return routeMatrix;
+    }
+
     /**
      * Returns a LiveData object containing any error messages.
      *
@@ -104,61 +207,332 @@ public class RouteDetailedViewModel extends AndroidViewModel {
     }
 
     /**
-     * Calculates directions between two points using Google Maps API.
+     * Calculates directions between two points through the shared {@link DirectionsService},
+     * which serves cached and prefetched routes without a new request. The alternative routes
+     * are then simplified, scored by the traffic items along them and ranked on the route
+     * executor, and the best ranked one is shown until the user picks another.
      *
      * @param sourceLatLng The starting point.
      * @param destinationLatLng The destination point.
      */
     public void calculateDirections(LatLng sourceLatLng, LatLng destinationLatLng) {
-        String url = buildDirectionsUrl(sourceLatLng, destinationLatLng);
-
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest
-                (Request.Method.GET, url, null, response -> {
-                    try {
-                        parseDirectionsResponse(response);
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                        errorMessage.postValue("Error parsing directions");
+        requestRoute(sourceLatLng, destinationLatLng, new DirectionsService.RouteCallback() {
+            @Override
+            public void onRoutes(List<DirectionsCache.Route> routes) {
+                pendingRouteCallbacks.remove(this);
+                runOnRouteExecutor(() -> buildOptions(routes));
+            }
+
+            @Override
+            public void onError(String message) {
+                pendingRouteCallbacks.remove(this);
+                errorMessage.postValue(message);
+            }
+        });
+    }
+
+    /**
+     * Requests a route from the shared {@link DirectionsService}, remembering the callback so
+     * it can be cancelled when the ViewModel is cleared. Must be called on the main thread.
+     */
+    private void requestRoute(LatLng origin, LatLng destination, DirectionsService.RouteCallback callback) {
+        pendingRouteCallbacks.add(callback);
+        directionsService.getRoute(origin, destination, callback);
+    }
+
+    /**
+     * Runs a task on the route executor, unless the ViewModel was cleared, which can happen
+     * while a route or traffic request is still being answered on another thread.
+     */
+    private void runOnRouteExecutor(Runnable task) {
+        if (routeExecutor.isShutdown()) {
+            return;
+        }
+        try {
+            routeExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "Route executor shut down; dropping task");
+        }
+    }
+
+    /**
+     * Shows another route option. Has no effect on options that are no longer offered.
+     *
+     * @param option The option to show.
+     */
+    public void selectRoute(RouteOption option) {
+        runOnRouteExecutor(() -> {
+            for (RouteOption current : options) {
+                if (current.responseIndex == option.responseIndex && current.route == option.route) {
+                    publishSelected(current);
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Plans a trip through several stops. Requests the route of every leg, from the origin to
+     * each stop and between every two stops, all at once through the shared
+     * {@link DirectionsService}, which serves cached legs without a request, joins legs already
+     * being fetched and spaces its network requests to respect the API rate limit. Once every
+     * leg has arrived or failed, the legs are scored against the latest traffic snapshot on the
+     * route executor and published as a {@link RouteMatrix} with the best order of stops.
+     * This is the entry point for a multi-stop planner screen; the route screen itself does
+     * not call it, since it shows the route to a single destination.
+     * Must be called on the main thread.
+     *
+     * @param origin The starting point.
+     * @param stops The stops, at most {@link #MAX_STOPS}.
+     */
+    public void planStops(LatLng origin, List<LatLng> stops) {
+        if (stops.isEmpty() || stops.size() > MAX_STOPS) {
+            errorMessage.setValue("Choose between 1 and " + MAX_STOPS + " stops");
+            return;
+        }
+        int generation = ++planGeneration;
+        List<LatLng> points = new ArrayList<>(stops.size() + 1);
+        points.add(origin);
+        points.addAll(stops);
+        int n = points.size();
+        DirectionsCache.Route[][] legs = new DirectionsCache.Route[n][n];
+        int[] pending = {(n - 1) * (n - 1)};
+
+        for (int from = 0; from < n; from++) {
+            for (int to = 1; to < n; to++) {
+                if (from == to) {
+                    continue;
+                }
+                int legFrom = from;
+                int legTo = to;
+                requestRoute(points.get(from), points.get(to), new DirectionsService.RouteCallback() {
+                    @Override
+                    public void onRoutes(List<DirectionsCache.Route> routes) {
+                        legs[legFrom][legTo] = routes.isEmpty() ? null : routes.get(0);
+                        onLegDone();
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        Log.w(TAG, "Leg " + legFrom + " -> " + legTo + " failed: " + message);
+                        onLegDone();
                     }
-                }, error -> errorMessage.postValue("Error fetching directions"));
 
-        requestQueue.add(jsonObjectRequest);
+                    private void onLegDone() {
+                        pendingRouteCallbacks.remove(this);
+                        if (--pending[0] == 0 && generation == planGeneration) {
+                            runOnRouteExecutor(() -> buildMatrix(points, legs));
+                        }
+                    }
+                });
+            }
+        }
     }
 
     /**
-     * Builds the URL for the Google Maps Directions API request.
+     * Scores every leg and publishes the route matrix. Runs on the route executor.
      *
-     * @param sourceLatLng The starting point.
-     * @param destinationLatLng The destination point.
-     * @return The URL string for the API request.
+     * @param points The origin followed by the stops.
+     * @param legs The recommended route of each leg, or null where it failed.
      */
-    private String buildDirectionsUrl(LatLng sourceLatLng, LatLng destinationLatLng) {
-        return "https://maps.googleapis.com/maps/api/directions/json?" +
-                "origin=" + sourceLatLng.latitude + "," + sourceLatLng.longitude +
-                "&destination=" + destinationLatLng.latitude + "," + destinationLatLng.longitude +
-                "&key=" + getApplication().getString(R.string.my_map_api_key);
+    private void buildMatrix(List<LatLng> points, DirectionsCache.Route[][] legs) {
+        int n = points.size();
+        long[][] durations = new long[n][n];
+        long[][] adjusted = new long[n][n];
+        long[][] distances = new long[n][n];
+        double[][] exposure = new double[n][n];
+        TrafficSnapshot snapshot = trafficDataRepository.getSnapshot();
+        boolean hasTraffic = snapshot != null && snapshot.size() > 0;
+        int fetched = 0;
+
+        for (int from = 0; from < n; from++) {
+            for (int to = 0; to < n; to++) {
+                DirectionsCache.Route leg = legs[from][to];
+                if (leg == null || polylineDecoder.load(leg.latitudesE5, leg.longitudesE5) == 0) {
+                    durations[from][to] = adjusted[from][to] = distances[from][to] = RouteMatrix.NO_LEG;
+                    continue;
+                }
+                fetched++;
+                durations[from][to] = leg.durationSeconds;
+                distances[from][to] = leg.distanceMeters;
+                adjusted[from][to] = leg.durationSeconds;
+                if (hasTraffic) {
+                    exposure[from][to] = RouteIncidentScorer.score(snapshot, leg.latitudesE5, leg.longitudesE5).value;
+                    EtaEngine engine = new EtaEngine(leg.latitudesE5, leg.longitudesE5,
+                            polylineDecoder.copyCumulativeDistances(), leg.durationSeconds, delayModel);
+                    engine.update(snapshot);
+                    adjusted[from][to] = Math.round(engine.getAdjustedSeconds());
+                }
+            }
+        }
+        if (fetched == 0) {
+            errorMessage.postValue("Error fetching directions for the stops");
+            return;
+        }
+        RouteMatrix matrix = new RouteMatrix(Collections.unmodifiableList(points), durations, adjusted, distances, exposure);
+        Log.d(TAG, "Planned " + matrix.getStopCount() + " stops from " + fetched + " legs: " + matrix.describeBestOrder());
+        routeMatrix.postValue(matrix);
     }
 
     /**
-     * Parses the JSON response from the Directions API.
-     * Extracts the route path and estimated time.
+     * Snaps a location update to the selected route and publishes the progress along it.
+     * Updates received before a route is shown are ignored.
      *
-     * @param response The JSON response from the API.
-     * @throws JSONException If there's an error parsing the JSON.
+     * @param location The new location of the device.
      */
-    private void parseDirectionsResponse(JSONObject response) throws JSONException {
-        JSONArray routes = response.getJSONArray("routes");
-        JSONObject route = routes.getJSONObject(0);
-        JSONObject overviewPolyline = route.getJSONObject("overview_polyline");
-        String encodedPath = overviewPolyline.getString("points");
-        List<LatLng> path = decodePolyline(encodedPath);
-        routePath.postValue(path);
+    public void updateLocation(Location location) {
+        double latitude = location.getLatitude();
+        double longitude = location.getLongitude();
+        runOnRouteExecutor(() -> {
+            if (selected == null) {
+                return;
+            }
+            if (progressTracker == null) {
+                DirectionsCache.Route route = selected.route;
+                progressTracker = new RouteProgressTracker(route.latitudesE5, route.longitudesE5,
+                        selected.cumulativeDistances, etaEngines.get(selected.responseIndex));
+            }
+            RouteProgressTracker.Progress progress = progressTracker.update(latitude, longitude);
+            if (progress != null) {
+                routeProgress.postValue(progress);
+            }
+        });
+    }
 
-        JSONArray legs = route.getJSONArray("legs");
-        JSONObject leg = legs.getJSONObject(0);
-        JSONObject duration = leg.getJSONObject("duration");
-        String time = duration.getString("text");
-        estimatedTime.postValue(time);
+    /**
+     * Builds the levels of detail and bounds of every route, then scores and ranks them.
+     * Runs on the route executor.
+     *
+     * @param routes The decoded routes, recommended route first.
+     */
+    private void buildOptions(List<DirectionsCache.Route> routes) {
+        List<RouteOption> built = new ArrayList<>(routes.size());
+        for (int i = 0; i < routes.size(); i++) {
+            DirectionsCache.Route route = routes.get(i);
+            if (polylineDecoder.load(route.latitudesE5, route.longitudesE5) == 0) {
+                continue;
+            }
+            Log.d(TAG, "Route " + i + ": " + polylineDecoder.size() + " points, "
+                    + Math.round(polylineDecoder.getTotalDistance()) + " m");
+            built.add(new RouteOption(route, i, SimplifiedPolyline.build(polylineDecoder),
+                    polylineDecoder.getBounds(), polylineDecoder.copyCumulativeDistances(), null, -1));
+        }
+        options = built;
+        etaEngines.clear();
+        selected = null;
+        scoreOptions();
+    }
+
+    /**
+     * Scores the options against the latest traffic snapshot, ranks them by adjusted travel
+     * time and publishes them. The best ranked option is only selected when none is shown yet;
+     * afterwards the shown option stays selected, so traffic data arriving later updates the
+     * ranking without switching the route or moving the camera under the user.
+     * Runs on the route executor.
+     */
+    private void scoreOptions() {
+        if (options.isEmpty()) {
+            return;
+        }
+        TrafficSnapshot snapshot = trafficDataRepository.getSnapshot();
+        List<RouteOption> ranked = new ArrayList<>(options.size());
+        if (snapshot != null && snapshot.size() > 0) {
+            long start = System.nanoTime();
+            for (RouteOption option : options) {
+                EtaEngine engine = engineFor(option);
+                double adjusted = -1;
+                if (engine != null) {
+                    engine.update(snapshot);
+                    adjusted = engine.getAdjustedSeconds();
+                }
+                ranked.add(option.withScore(RouteIncidentScorer.score(snapshot,
+                        option.route.latitudesE5, option.route.longitudesE5), adjusted));
+            }
+            Log.d(TAG, "Scored " + ranked.size() + " routes in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } else {
+            ranked.addAll(options);
+        }
+        Collections.sort(ranked, RouteOption::compareRank);
+        options = ranked;
+        routeOptions.postValue(Collections.unmodifiableList(new ArrayList<>(ranked)));
+
+        RouteOption next = ranked.get(0);
+        if (selected != null) {
+            for (RouteOption option : ranked) {
+                if (option.responseIndex == selected.responseIndex) {
+                    next = option;
+                }
+            }
+        }
+        publishSelected(next);
+    }
+
+    /**
+     * Publishes an option as the route, with its path, levels of detail, bounds and estimated
+     * time. The bounds are only republished when another route is selected, so rescoring does
+     * not move the camera, while the estimated time is brought up to date with the latest
+     * traffic snapshot every time. Runs on the route executor.
+     *
+     * @param option The option to show.
+     */
+    private void publishSelected(RouteOption option) {
+        boolean changed = selected == null || selected.responseIndex != option.responseIndex;
+        selected = option;
+        selectedOption.postValue(option);
+        if (changed) {
+            progressTracker = null;
+            routePath.postValue(option.levels.getFullPath());
+            routeLevels.postValue(option.levels);
+            routeBounds.postValue(option.bounds);
+        }
+        estimatedTime.postValue(estimateTime(option));
+    }
+
+    /**
+     * Returns the estimated time of an option, adjusted for the traffic items along it by its
+     * ETA engine, which is updated incrementally. Runs on the route executor.
+     *
+     * @param option The route option.
+     * @return The estimated time text.
+     */
+    private String estimateTime(RouteOption option) {
+        DirectionsCache.Route route = option.route;
+        EtaEngine engine = engineFor(option);
+        if (engine == null) {
+            return route.duration;
+        }
+        TrafficSnapshot snapshot = trafficDataRepository.getSnapshot();
+        if (snapshot != null) {
+            int changes = engine.update(snapshot);
+            Log.d(TAG, "ETA engine applied " + changes + " changes, delay " + Math.round(engine.getDelaySeconds()) + " s");
+        }
+        if (engine.getDelaySeconds() < 60) {
+            return route.duration;
+        }
+        int items = engine.getDelayingItemCount();
+        return EtaEngine.formatDuration(engine.getAdjustedSeconds()) + " (" + route.duration + " + "
+                + EtaEngine.formatDuration(engine.getDelaySeconds()) + " for " + items
+                + (items == 1 ? " incident)" : " incidents)");
+    }
+
+    /**
+     * Returns the ETA engine of an option, creating it on first use. Runs on the route executor.
+     *
+     * @param option The route option.
+     * @return The engine, or null if the route has no duration.
+     */
+    private EtaEngine engineFor(RouteOption option) {
+        DirectionsCache.Route route = option.route;
+        if (route.durationSeconds <= 0) {
+            return null;
+        }
+        EtaEngine engine = etaEngines.get(option.responseIndex);
+        if (engine == null) {
+            engine = new EtaEngine(route.latitudesE5, route.longitudesE5, option.cumulativeDistances,
+                    route.durationSeconds, delayModel);
+            etaEngines.put(option.responseIndex, engine);
+        }
+        return engine;
     }
 
     /**
@@ -173,6 +547,7 @@ public class RouteDetailedViewModel extends AndroidViewModel {
                     Log.w(TAG, "No traffic data loaded");
                 }
                 incidentData.postValue(data);
+                runOnRouteExecutor(RouteDetailedViewModel.this::scoreOptions);
             }
 
             @Override
@@ -184,45 +559,16 @@ public class RouteDetailedViewModel extends AndroidViewModel {
     }
 
     /**
-     * Decodes an encoded polyline string into a list of LatLng points.
-     * This method uses the polyline encoding algorithm used by Google Maps.
-     *
-     * @param encoded The encoded polyline string
-     * @return A list of LatLng points representing the decoded polyline
+     * Cancels the pending route callbacks and stops the route executor when the ViewModel is
+     * destroyed.
      */
-    private List<LatLng> decodePolyline(String encoded) {
-        List<LatLng> poly = new ArrayList<>();
-        int index = 0, len = encoded.length();
-        int lat = 0, lng = 0;
-
-        while (index < len) {
-            // Decode latitude
-            int b, shift = 0, result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lat += dlat;
-
-            // Decode longitude
-            shift = 0;
-            result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lng += dlng;
-
-            // Create LatLng object and add to list
-            LatLng p = new LatLng((((double) lat / 1E5)),
-                    (((double) lng / 1E5)));
-            poly.add(p);
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        for (DirectionsService.RouteCallback callback : pendingRouteCallbacks) {
+            directionsService.cancel(callback);
         }
-
-        return poly;
+        pendingRouteCallbacks.clear();
+        routeExecutor.shutdownNow();
     }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.example.myapplication;
+
+import java.util.BitSet;
+
+/**
+ * RouteIncidentScorer rates how exposed a route is to the official traffic items along it.
+ * Every active incident, accident and event within {@link #CORRIDOR_METERS} of the path counts
+ * once, weighted by its severity. Candidates are found through the snapshot's shared
+ * {@link SpatialGridIndex} by sampling each path segment at most one grid cell apart, so the
+ * cost grows with the route length and the items near it rather than with the snapshot size.
+ */
+public final class RouteIncidentScorer {
+    /**
+     * Maximum distance between the path and an item that affects the route, in meters.
+     * Together with half the sample spacing, must not exceed the snapshot's grid cell size.
+     */
+    public static final double CORRIDOR_METERS = 150;
+
+    /**
+     * Approximate length of one degree of latitude, in meters.
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private RouteIncidentScorer() {
+    }
+
+    /**
+     * The exposure of one route.
+     */
+    public static class Score {
+        /** Sum of the severity weights of the items in the corridor. Lower is better. */
+        final double value;
+
+        /** Number of incidents in the corridor. */
+        final int incidents;
+
+        /** Number of accidents in the corridor. */
+        final int accidents;
+
+        /** Number of events in the corridor. */
+        final int events;
+
+        /**
+         * Constructs a new Score.
+         *
+         * @param value Sum of the severity weights.
+         * @param incidents Number of incidents.
+         * @param accidents Number of accidents.
+         * @param events Number of events.
+         */
+        Score(double value, int incidents, int accidents, int events) {
+            this.value = value;
+            this.incidents = incidents;
+            this.accidents = accidents;
+            this.events = events;
+        }
+    }
+
+    /**
+     * Scores a route against the items of a snapshot that are active now.
+     *
+     * @param snapshot The traffic snapshot.
+     * @param latitudesE5 Latitude of each path point, in units of 1E-5 degrees.
+     * @param longitudesE5 Longitude of each path point, in units of 1E-5 degrees.
+     * @return The exposure of the route.
+     */
+    public static Score score(TrafficSnapshot snapshot, int[] latitudesE5, int[] longitudesE5) {
+        int n = latitudesE5.length;
+        if (n == 0 || snapshot.size() == 0) {
+            return new Score(0, 0, 0, 0);
+        }
+        ValidityIndex validity = snapshot.getValidityIndex();
+        BitSet active = validity.isStatic() ? null : validity.activeAt(System.currentTimeMillis());
+        SpatialGridIndex grid = snapshot.getSpatialIndex();
+        BitSet counted = new BitSet(snapshot.size());
+        double[] total = new double[1];
+        int[] counts = new int[3];
+
+        for (int s = 0; s < Math.max(1, n - 1); s++) {
+            double aLat = latitudesE5[s] / 1E5;
+            double aLng = longitudesE5[s] / 1E5;
+            double bLat = latitudesE5[Math.min(s + 1, n - 1)] / 1E5;
+            double bLng = longitudesE5[Math.min(s + 1, n - 1)] / 1E5;
+            double metersPerDegreeLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(aLat));
+            double dx = (bLng - aLng) * metersPerDegreeLng;
+            double dy = (bLat - aLat) * METERS_PER_DEGREE;
+            double length = Math.sqrt(dx * dx + dy * dy);
+            int steps = Math.max(1, (int) Math.ceil(length / TrafficSnapshot.GRID_CELL_METERS));
+
+            for (int k = 0; k <= steps; k++) {
+                double t = (double) k / steps;
+                grid.forEachNear(aLat + (bLat - aLat) * t, aLng + (bLng - aLng) * t, id -> {
+                    if (counted.get(id) || (active != null && !active.get(id))) {
+                        return;
+                    }
+                    double px = (snapshot.getLongitude(id) - aLng) * metersPerDegreeLng;
+                    double py = (snapshot.getLatitude(id) - aLat) * METERS_PER_DEGREE;
+                    if (segmentDistance(px, py, dx, dy) > CORRIDOR_METERS) {
+                        return;
+                    }
+                    counted.set(id);
+                    int category = snapshot.getCategory(id);
+                    total[0] += weightOf(category);
+                    if ((category & TrafficCategory.ACCIDENT) != 0) {
+                        counts[1]++;
+                    } else if ((category & TrafficCategory.EVENT) != 0) {
+                        counts[2]++;
+                    } else if (category != TrafficCategory.NONE) {
+                        counts[0]++;
+                    }
+                });
+            }
+        }
+        return new Score(total[0], counts[0], counts[1], counts[2]);
+    }
+
+    /**
+     * Returns the severity weight of an item category.
+     */
+    private static double weightOf(int category) {
+        if ((category & TrafficCategory.INCIDENT_HIGH) != 0) {
+            return 5;
+        }
+        if ((category & TrafficCategory.ACCIDENT) != 0) {
+            return 4;
+        }
+        if ((category & TrafficCategory.INCIDENT_MEDIUM) != 0) {
+            return 3;
+        }
+        if ((category & TrafficCategory.EVENT) != 0) {
+            return 2;
+        }
+        if ((category & TrafficCategory.INCIDENT_LOW) != 0) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the distance from a point to the segment from the origin to (dx, dy), in the
+     * segment's local plane.
+     */
+    private static double segmentDistance(double px, double py, double dx, double dy) {
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? (px * dx + py * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RouteMatrix holds the legs between an origin and several stops: for every ordered pair of
+ * points, the duration of the recommended route, that duration adjusted for the traffic items
+ * along it, and its exposure to them. Point 0 is the origin, points 1 to n the stops. It also
+ * holds the order of stops that minimizes the adjusted travel time, found exactly by dynamic
+ * programming over subsets of stops, which is cheap for the few stops a trip has.
+ * Immutable once built.
+ */
+public final class RouteMatrix {
+    /**
+     * Value of a leg that could not be fetched.
+     */
+    public static final long NO_LEG = -1;
+
+    /** The origin followed by the stops. */
+    final List<LatLng> points;
+
+    /** Duration of each leg from point i to point j, in seconds, or {@link #NO_LEG}. */
+    final long[][] durationSeconds;
+
+    /** Duration of each leg adjusted for traffic items, in seconds, or {@link #NO_LEG}. */
+    final long[][] adjustedSeconds;
+
+    /** Distance of each leg, in meters, or {@link #NO_LEG}. */
+    final long[][] distanceMeters;
+
+    /** Exposure of each leg to traffic items, as scored by {@link RouteIncidentScorer}. */
+    final double[][] exposure;
+
+    /** Stops in the best visiting order, as point indices, or null if no order reaches every stop. */
+    final int[] bestOrder;
+
+    /**
+     * Constructs a new RouteMatrix and computes the best order of stops.
+     *
+     * @param points The origin followed by the stops.
+     * @param durationSeconds Duration of each leg, or {@link #NO_LEG}.
+     * @param adjustedSeconds Adjusted duration of each leg, or {@link #NO_LEG}.
+     * @param distanceMeters Distance of each leg, or {@link #NO_LEG}.
+     * @param exposure Exposure of each leg to traffic items.
+     */
+    RouteMatrix(List<LatLng> points, long[][] durationSeconds, long[][] adjustedSeconds,
+                long[][] distanceMeters, double[][] exposure) {
+        this.points = points;
+        this.durationSeconds = durationSeconds;
+        this.adjustedSeconds = adjustedSeconds;
+        this.distanceMeters = distanceMeters;
+        this.exposure = exposure;
+        this.bestOrder = computeBestOrder();
+    }
+
+    /**
+     * Returns the number of stops, not counting the origin.
+     *
+     * @return The stop count.
+     */
+    public int getStopCount() {
+        return points.size() - 1;
+    }
+
+    /**
+     * Returns the stops in the best visiting order.
+     *
+     * @return The stops, or an empty list if some stop cannot be reached.
+     */
+    public List<LatLng> getOrderedStops() {
+        List<LatLng> ordered = new ArrayList<>();
+        if (bestOrder != null) {
+            for (int point : bestOrder) {
+                ordered.add(points.get(point));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Returns the adjusted travel time of the trip in the best order.
+     *
+     * @return The time in seconds, or {@link #NO_LEG} if some stop cannot be reached.
+     */
+    public long getBestOrderSeconds() {
+        if (bestOrder == null) {
+            return NO_LEG;
+        }
+        long total = 0;
+        int from = 0;
+        for (int to : bestOrder) {
+            total += adjustedSeconds[from][to];
+            from = to;
+        }
+        return total;
+    }
+
+    /**
+     * Returns a one-line description of the best order, such as "Stops 2, 1, 3: 42 mins".
+     *
+     * @return The description.
+     */
+    public String describeBestOrder() {
+        if (bestOrder == null) {
+            return "No route reaches every stop";
+        }
+        StringBuilder text = new StringBuilder(bestOrder.length == 1 ? "Stop " : "Stops ");
+        for (int i = 0; i < bestOrder.length; i++) {
+            text.append(i > 0 ? ", " : "").append(bestOrder[i]);
+        }
+        double totalExposure = 0;
+        int from = 0;
+        for (int to : bestOrder) {
+            totalExposure += exposure[from][to];
+            from = to;
+        }
+        return text.append(": ").append(EtaEngine.formatDuration(getBestOrderSeconds()))
+                .append(String.format(Locale.US, " (exposure %.0f)", totalExposure)).toString();
+    }
+
+    /**
+     * Finds the order of stops with the least adjusted travel time, starting at the origin and
+     * ending at the last stop, with the exposure breaking ties. Uses the Held-Karp recurrence:
+     * the best path through each subset of stops ending at each stop.
+     */
+    private int[] computeBestOrder() {
+        int n = getStopCount();
+        if (n == 0) {
+            return new int[0];
+        }
+        int subsets = 1 << n;
+        double[][] cost = new double[subsets][n];
+        int[][] previous = new int[subsets][n];
+        for (double[] row : cost) {
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+        }
+        for (int last = 0; last < n; last++) {
+            cost[1 << last][last] = legCost(0, last + 1);
+            previous[1 << last][last] = -1;
+        }
+        for (int subset = 1; subset < subsets; subset++) {
+            for (int last = 0; last < n; last++) {
+                if ((subset & (1 << last)) == 0 || Double.isInfinite(cost[subset][last])) {
+                    continue;
+                }
+                for (int next = 0; next < n; next++) {
+                    if ((subset & (1 << next)) != 0) {
+                        continue;
+                    }
+                    double candidate = cost[subset][last] + legCost(last + 1, next + 1);
+                    int extended = subset | (1 << next);
+                    if (candidate < cost[extended][next]) {
+                        cost[extended][next] = candidate;
+                        previous[extended][next] = last;
+                    }
+                }
+            }
+        }
+
+        int all = subsets - 1;
+        int last = -1;
+        for (int candidate = 0; candidate < n; candidate++) {
+            if (last < 0 || cost[all][candidate] < cost[all][last]) {
+                last = candidate;
+            }
+        }
+        if (Double.isInfinite(cost[all][last])) {
+            return null;
+        }
+        int[] order = new int[n];
+        int subset = all;
+        for (int i = n - 1; i >= 0; i--) {
+            order[i] = last + 1;
+            int before = previous[subset][last];
+            subset &= ~(1 << last);
+            last = before;
+        }
+        return order;
+    }
+
+    /**
+     * Returns the cost of a leg for ordering: its adjusted duration, plus a fraction of a
+     * second per unit of exposure so that equally fast orders prefer the calmer one.
+     */
+    private double legCost(int from, int to) {
+        if (adjustedSeconds[from][to] == NO_LEG) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return adjustedSeconds[from][to] + exposure[from][to] * 1E-3;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.Locale;
+
+/**
+ * RouteOption is one of the routes offered between an origin and a destination, ready to be
+ * drawn and compared: its decoded route, its levels of detail and bounds, its exposure to the
+ * traffic items along it and its travel time adjusted for them. Immutable; rescoring creates a
+ * new option.
+ */
+public final class RouteOption {
+    /** The decoded route. */
+    final DirectionsCache.Route route;
+
+    /** Position of the route in the Directions API response, 0 being the recommended route. */
+    final int responseIndex;
+
+    /** The route path at each level of detail. */
+    final SimplifiedPolyline levels;
+
+    /** The bounding box of the route path. */
+    final LatLngBounds bounds;
+
+    /** Distance along the route to each path point, in meters. */
+    final double[] cumulativeDistances;
+
+    /** Exposure of the route to traffic items, or null before traffic data is available. */
+    final RouteIncidentScorer.Score score;
+
+    /** Travel time adjusted for the traffic items along the route, in seconds, or a negative value if unknown. */
+    final double adjustedSeconds;
+
+    /**
+     * Constructs a new RouteOption.
+     *
+     * @param route The decoded route.
+     * @param responseIndex Position of the route in the Directions API response.
+     * @param levels The route path at each level of detail.
+     * @param bounds The bounding box of the route path.
+     * @param cumulativeDistances Distance along the route to each path point, in meters.
+     * @param score Exposure of the route to traffic items, or null.
+     * @param adjustedSeconds Adjusted travel time in seconds, or a negative value.
+     */
+    RouteOption(DirectionsCache.Route route, int responseIndex, SimplifiedPolyline levels,
+                LatLngBounds bounds, double[] cumulativeDistances, RouteIncidentScorer.Score score,
+                double adjustedSeconds) {
+        this.route = route;
+        this.responseIndex = responseIndex;
+        this.levels = levels;
+        this.bounds = bounds;
+        this.cumulativeDistances = cumulativeDistances;
+        this.score = score;
+        this.adjustedSeconds = adjustedSeconds;
+    }
+
+    /**
+     * Returns a copy of this option with another score and adjusted travel time.
+     *
+     * @param score The new score.
+     * @param adjustedSeconds The new adjusted travel time in seconds, or a negative value.
+     * @return The rescored option.
+     */
+    RouteOption withScore(RouteIncidentScorer.Score score, double adjustedSeconds) {
+        return new RouteOption(route, responseIndex, levels, bounds, cumulativeDistances, score, adjustedSeconds);
+    }
+
+    /**
+     * Returns the travel time used for ranking: the adjusted time if known, otherwise the
+     * duration given by the Directions API.
+     *
+     * @return The travel time in seconds.
+     */
+    double getRankSeconds() {
+        return adjustedSeconds >= 0 ? adjustedSeconds : route.durationSeconds;
+    }
+
+    /**
+     * Orders options by travel time adjusted for the traffic items along them, so a calmer
+     * route only wins when the delays on the other one make it slower; the exposure breaks
+     * ties. Unscored options keep the response order.
+     *
+     * @param other The option to compare with.
+     * @return A negative number if this option ranks first.
+     */
+    int compareRank(RouteOption other) {
+        if (score != null && other.score != null) {
+            int byTime = Double.compare(getRankSeconds(), other.getRankSeconds());
+            if (byTime != 0) {
+                return byTime;
+            }
+            return Double.compare(score.value, other.score.value);
+        }
+        return Integer.compare(responseIndex, other.responseIndex);
+    }
+
+    /**
+     * Returns a one-line description of the option for display.
+     *
+     * @param rank The position of the option in the ranking, starting at 1.
+     * @param count The number of options.
+     * @return The description.
+     */
+    public String describe(int rank, int count) {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "Route %d of %d", rank, count));
+        if (route.summary != null && !route.summary.isEmpty()) {
+            text.append(" via ").append(route.summary);
+        }
+        text.append(": ").append(route.duration);
+        if (adjustedSeconds >= route.durationSeconds + 60) {
+            text.append(" (").append(EtaEngine.formatDuration(adjustedSeconds)).append(" with traffic)");
+        }
+        if (score != null) {
+            text.append(String.format(Locale.US, ", %d incidents, %d accidents, %d events (score %.0f)",
+                    score.incidents, score.accidents, score.events, score.value));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * RouteProgressTracker follows the user along a route. Each location fix is snapped to the
+ * nearest point of the route path, searching only a small window of segments around the last
+ * match, so the cost per fix is constant however long the route is. When the fix is not near
+ * that window, as on the first fix or after a detour, the route is searched through a grid
+ * index of its segments instead. From the snapped position it derives the distance travelled
+ * and remaining, and, through the route's {@link EtaEngine}, the remaining time and the traffic
+ * items ahead. Not thread-safe; use from one thread.
+ */
+public class RouteProgressTracker {
+    /**
+     * Distance from the route beyond which a fix counts as off the route, in meters.
+     */
+    public static final double OFF_ROUTE_METERS = 50;
+
+    /**
+     * Number of segments before the last match searched for the next one.
+     */
+    private static final int WINDOW_BEHIND = 2;
+
+    /**
+     * Number of segments after the last match searched for the next one.
+     */
+    private static final int WINDOW_AHEAD = 10;
+
+    /**
+     * Cell size of the grid over the route segments, in meters. Segment samples are at most one
+     * cell apart, so every segment within {@link #OFF_ROUTE_METERS} of a fix is found.
+     */
+    private static final double SEGMENT_CELL_METERS = 250;
+
+    /**
+     * Maximum number of traffic items reported ahead.
+     */
+    private static final int MAX_ITEMS_AHEAD = 3;
+
+    /**
+     * Approximate length of one degree of latitude, in meters.
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * The progress along the route at one fix.
+     */
+    public static class Progress {
+        /** The point of the route nearest the fix, or the last one while off the route. */
+        final LatLng position;
+
+        /** Distance travelled along the route, in meters. */
+        final double distanceTravelled;
+
+        /** Distance remaining along the route, in meters. */
+        final double distanceRemaining;
+
+        /** Distance between the fix and the route, in meters. */
+        final double distanceFromRoute;
+
+        /** Whether the fix is more than {@link #OFF_ROUTE_METERS} from the route. */
+        final boolean offRoute;
+
+        /** Adjusted time remaining in seconds, or a negative value if unknown. */
+        final double remainingSeconds;
+
+        /** Traffic items ahead on the route, nearest first. */
+        final List<EtaEngine.AppliedItem> itemsAhead;
+
+        /**
+         * Constructs a new Progress.
+         *
+         * @param position The point of the route nearest the fix.
+         * @param distanceTravelled Distance travelled along the route.
+         * @param distanceRemaining Distance remaining along the route.
+         * @param distanceFromRoute Distance between the fix and the route.
+         * @param offRoute Whether the fix is off the route.
+         * @param remainingSeconds Adjusted time remaining, or a negative value.
+         * @param itemsAhead Traffic items ahead, nearest first.
+         */
+        Progress(LatLng position, double distanceTravelled, double distanceRemaining, double distanceFromRoute,
+                 boolean offRoute, double remainingSeconds, List<EtaEngine.AppliedItem> itemsAhead) {
+            this.position = position;
+            this.distanceTravelled = distanceTravelled;
+            this.distanceRemaining = distanceRemaining;
+            this.distanceFromRoute = distanceFromRoute;
+            this.offRoute = offRoute;
+            this.remainingSeconds = remainingSeconds;
+            this.itemsAhead = itemsAhead;
+        }
+
+        /**
+         * Returns a one-line summary of the progress, such as "4.2 km, 9 mins left".
+         *
+         * @return The summary.
+         */
+        public String summary() {
+            if (offRoute) {
+                return String.format(Locale.US, "Off route by %.0f m", distanceFromRoute);
+            }
+            String text = String.format(Locale.US, "%.1f km", distanceRemaining / 1000);
+            if (remainingSeconds >= 0) {
+                text += ", " + EtaEngine.formatDuration(remainingSeconds);
+            }
+            return text + " left";
+        }
+
+        /**
+         * Returns a description of the traffic items ahead, one per line.
+         *
+         * @return The description, or an empty string if there are none.
+         */
+        public String describeItemsAhead() {
+            StringBuilder text = new StringBuilder();
+            for (EtaEngine.AppliedItem ahead : itemsAhead) {
+                Object title = ahead.item.get("shortDescription");
+                if (title == null) {
+                    title = ahead.item.get("title");
+                }
+                if (text.length() > 0) {
+                    text.append('\n');
+                }
+                text.append(String.format(Locale.US, "%s in %.1f km",
+                        title != null ? title : "Traffic item", (ahead.position - distanceTravelled) / 1000));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Latitude of each path point, in degrees.
+     */
+    private final double[] latitudes;
+
+    /**
+     * Longitude of each path point, in degrees.
+     */
+    private final double[] longitudes;
+
+    /**
+     * Distance along the route to each path point, in meters.
+     */
+    private final double[] cumulativeDistances;
+
+    /**
+     * ETA engine of the route, or null if the route has no duration.
+     */
+    private final EtaEngine etaEngine;
+
+    /**
+     * Grid over samples of the route, keyed by segment index. Built on the first search.
+     */
+    private SpatialGridIndex segmentGrid;
+
+    /**
+     * Segment of the last match, or -1 before the first match.
+     */
+    private int lastSegment = -1;
+
+    /**
+     * Distance along the route of the last match, in meters.
+     */
+    private double lastDistance;
+
+    /**
+     * The last matched point of the route.
+     */
+    private LatLng lastPosition;
+
+    /**
+     * Segment of the best candidate of the current search, or -1.
+     */
+    private int candidateSegment;
+
+    /**
+     * Distance between the fix and the best candidate, in meters.
+     */
+    private double candidateDistance;
+
+    /**
+     * Position of the best candidate along its segment, between 0 and 1.
+     */
+    private double candidateFraction;
+
+    /**
+     * Constructs a new RouteProgressTracker for a route.
+     *
+     * @param latitudesE5 Latitude of each path point, in units of 1E-5 degrees.
+     * @param longitudesE5 Longitude of each path point, in units of 1E-5 degrees.
+     * @param cumulativeDistances Distance along the route to each path point, in meters.
+     * @param etaEngine ETA engine of the route, or null.
+     */
+    public RouteProgressTracker(int[] latitudesE5, int[] longitudesE5, double[] cumulativeDistances,
+                                EtaEngine etaEngine) {
+        int n = latitudesE5.length;
+        latitudes = new double[n];
+        longitudes = new double[n];
+        for (int i = 0; i < n; i++) {
+            latitudes[i] = latitudesE5[i] / 1E5;
+            longitudes[i] = longitudesE5[i] / 1E5;
+        }
+        this.cumulativeDistances = cumulativeDistances;
+        this.etaEngine = etaEngine;
+    }
+
+    /**
+     * Snaps a location fix to the route and returns the progress.
+     *
+     * @param latitude The latitude of the fix.
+     * @param longitude The longitude of the fix.
+     * @return The progress, or null if the route is empty.
+     */
+    public Progress update(double latitude, double longitude) {
+        if (latitudes.length == 0) {
+            return null;
+        }
+        candidateSegment = -1;
+        candidateDistance = Double.MAX_VALUE;
+        if (lastSegment >= 0) {
+            int from = Math.max(0, lastSegment - WINDOW_BEHIND);
+            int to = Math.min(segmentCount() - 1, lastSegment + WINDOW_AHEAD);
+            for (int s = from; s <= to; s++) {
+                consider(s, latitude, longitude);
+            }
+        }
+        if (candidateDistance > OFF_ROUTE_METERS) {
+            searchGrid(latitude, longitude);
+        }
+
+        boolean offRoute = candidateDistance > OFF_ROUTE_METERS;
+        if (!offRoute || lastSegment < 0) {
+            int s = candidateSegment;
+            int end = Math.min(s + 1, latitudes.length - 1);
+            double t = candidateFraction;
+            lastSegment = s;
+            lastDistance = cumulativeDistances[s] + t * (cumulativeDistances[end] - cumulativeDistances[s]);
+            lastPosition = new LatLng(latitudes[s] + (latitudes[end] - latitudes[s]) * t,
+                    longitudes[s] + (longitudes[end] - longitudes[s]) * t);
+        }
+
+        double total = cumulativeDistances[cumulativeDistances.length - 1];
+        double remainingSeconds = -1;
+        List<EtaEngine.AppliedItem> itemsAhead = Collections.emptyList();
+        if (etaEngine != null) {
+            remainingSeconds = etaEngine.getRemainingSeconds(lastSegment, lastDistance);
+            itemsAhead = etaEngine.getItemsAhead(lastDistance, MAX_ITEMS_AHEAD);
+        }
+        return new Progress(lastPosition, lastDistance, Math.max(0, total - lastDistance), candidateDistance,
+                offRoute, remainingSeconds, itemsAhead);
+    }
+
+    /**
+     * Searches the segments near a fix through the segment grid.
+     */
+    private void searchGrid(double latitude, double longitude) {
+        if (segmentGrid == null) {
+            segmentGrid = buildSegmentGrid();
+        }
+        segmentGrid.forEachNear(latitude, longitude, s -> consider(s, latitude, longitude));
+        if (candidateSegment < 0) {
+            // Far from the whole route: keep the nearest end so the progress stays defined.
+            consider(0, latitude, longitude);
+            consider(segmentCount() - 1, latitude, longitude);
+        }
+    }
+
+    /**
+     * Builds the grid over samples of every segment.
+     */
+    private SpatialGridIndex buildSegmentGrid() {
+        SpatialGridIndex grid = new SpatialGridIndex(SEGMENT_CELL_METERS, latitudes[0]);
+        for (int s = 0; s < segmentCount(); s++) {
+            int end = Math.min(s + 1, latitudes.length - 1);
+            double length = cumulativeDistances[end] - cumulativeDistances[s];
+            int steps = Math.max(1, (int) Math.ceil(length / SEGMENT_CELL_METERS));
+            for (int k = 0; k <= steps; k++) {
+                double t = (double) k / steps;
+                grid.insert(s, latitudes[s] + (latitudes[end] - latitudes[s]) * t,
+                        longitudes[s] + (longitudes[end] - longitudes[s]) * t);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Projects a fix onto a segment and keeps it as the candidate if it is the nearest so far.
+     */
+    private void consider(int s, double latitude, double longitude) {
+        int end = Math.min(s + 1, latitudes.length - 1);
+        double metersPerDegreeLng = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitudes[s]));
+        double dx = (longitudes[end] - longitudes[s]) * metersPerDegreeLng;
+        double dy = (latitudes[end] - latitudes[s]) * METERS_PER_DEGREE;
+        double px = (longitude - longitudes[s]) * metersPerDegreeLng;
+        double py = (latitude - latitudes[s]) * METERS_PER_DEGREE;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared)) : 0;
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        double distance = Math.sqrt(ex * ex + ey * ey);
+        if (distance < candidateDistance) {
+            candidateSegment = s;
+            candidateDistance = distance;
+            candidateFraction = t;
+        }
+    }
+
+    /**
+     * Returns the number of segments, counting a single point as one segment.
+     */
+    private int segmentCount() {
+        return Math.max(1, latitudes.length - 1);
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.myapplication;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SimplifiedPolyline holds a route path at several levels of detail, one per band of map zoom
+ * levels, so the map only renders as many vertices as are visible at the current zoom.
+ * The levels are built with Douglas-Peucker in a single pass: every vertex is given the largest
+ * tolerance at which Douglas-Peucker would still keep it, and each level then keeps the vertices
+ * whose tolerance exceeds one on-screen pixel at the top of its zoom band. All levels share the
+ * LatLng objects of the full path. Building is CPU-bound; do it off the main thread.
+ * Immutable once built.
+ */
+public final class SimplifiedPolyline {
+    /**
+     * Upper zoom bound of each simplified level, in ascending order. At or above the last bound
+     * the full path is used.
+     */
+    private static final float[] LEVEL_MAX_ZOOMS = {9f, 11f, 13f, 15f};
+
+    /**
+     * Largest deviation from the full path that a level may show, in screen pixels.
+     */
+    private static final double TOLERANCE_PIXELS = 1.5;
+
+    /**
+     * Ground resolution of a 256-pixel Web Mercator tile at zoom 0 on the equator, in meters per pixel.
+     */
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156_543.03392;
+
+    /**
+     * Approximate length of one degree of latitude, in meters.
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * The path of each level, coarsest first; the last level is the full path.
+     */
+    private final List<List<LatLng>> levels;
+
+    /**
+     * Constructs a new SimplifiedPolyline.
+     */
+    private SimplifiedPolyline(List<List<LatLng>> levels) {
+        this.levels = levels;
+    }
+
+    /**
+     * Builds the detail levels of the path last decoded by a decoder.
+     *
+     * @param decoder The decoder holding the decoded path.
+     * @return The simplified polyline.
+     */
+    public static SimplifiedPolyline build(PolylineDecoder decoder) {
+        int n = decoder.size();
+        List<LatLng> full = decoder.toLatLngList();
+        List<List<LatLng>> levels = new ArrayList<>(LEVEL_MAX_ZOOMS.length + 1);
+        if (n < 3) {
+            for (int i = 0; i <= LEVEL_MAX_ZOOMS.length; i++) {
+                levels.add(Collections.unmodifiableList(full));
+            }
+            return new SimplifiedPolyline(levels);
+        }
+
+        // Project onto a local plane in meters, which is accurate enough at route scale.
+        double referenceLatitude = (decoder.getLatitude(0) + decoder.getLatitude(n - 1)) / 2;
+        double cosLat = Math.cos(Math.toRadians(referenceLatitude));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = decoder.getLongitude(i) * METERS_PER_DEGREE * cosLat;
+            y[i] = decoder.getLatitude(i) * METERS_PER_DEGREE;
+        }
+        double[] importance = computeImportance(x, y);
+
+        for (float maxZoom : LEVEL_MAX_ZOOMS) {
+            double tolerance = TOLERANCE_PIXELS * METERS_PER_PIXEL_AT_ZOOM_0 * cosLat / Math.pow(2, maxZoom);
+            List<LatLng> level = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (importance[i] > tolerance) {
+                    level.add(full.get(i));
+                }
+            }
+            levels.add(Collections.unmodifiableList(level));
+        }
+        levels.add(Collections.unmodifiableList(full));
+        return new SimplifiedPolyline(levels);
+    }
+
+    /**
+     * Returns the level of detail to use at a zoom level.
+     *
+     * @param zoom The map zoom level.
+     * @return The level index, where higher levels have more detail.
+     */
+    public int getLevel(float zoom) {
+        for (int i = 0; i < LEVEL_MAX_ZOOMS.length; i++) {
+            if (zoom < LEVEL_MAX_ZOOMS[i]) {
+                return i;
+            }
+        }
+        return LEVEL_MAX_ZOOMS.length;
+    }
+
+    /**
+     * Returns the path of a level of detail.
+     *
+     * @param level The level index, as returned by {@link #getLevel(float)}.
+     * @return The unmodifiable path.
+     */
+    public List<LatLng> getPath(int level) {
+        return levels.get(level);
+    }
+
+    /**
+     * Returns the full path, without simplification.
+     *
+     * @return The unmodifiable path.
+     */
+    public List<LatLng> getFullPath() {
+        return levels.get(levels.size() - 1);
+    }
+
+    /**
+     * Runs Douglas-Peucker without a tolerance and records, for every vertex, the distance at
+     * which it was split off, capped by the distance of the split that contains it. Keeping the
+     * vertices whose value exceeds a tolerance then gives the Douglas-Peucker result for that
+     * tolerance. The endpoints are always kept.
+     */
+    private static double[] computeImportance(double[] x, double[] y) {
+        int n = x.length;
+        double[] importance = new double[n];
+        importance[0] = Double.POSITIVE_INFINITY;
+        importance[n - 1] = Double.POSITIVE_INFINITY;
+
+        // Explicit stack of segments, so long routes cannot overflow the call stack.
+        int[] firsts = new int[n];
+        int[] lasts = new int[n];
+        double[] caps = new double[n];
+        int top = 0;
+        firsts[0] = 0;
+        lasts[0] = n - 1;
+        caps[0] = Double.POSITIVE_INFINITY;
+        top++;
+
+        while (top > 0) {
+            top--;
+            int first = firsts[top];
+            int last = lasts[top];
+            double cap = caps[top];
+            if (last - first < 2) {
+                continue;
+            }
+
+            int farthest = first + 1;
+            double maxDistance = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = segmentDistance(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            double value = Math.min(maxDistance, cap);
+            importance[farthest] = value;
+
+            firsts[top] = first;
+            lasts[top] = farthest;
+            caps[top] = value;
+            top++;
+            firsts[top] = farthest;
+            lasts[top] = last;
+            caps[top] = value;
+            top++;
+        }
+        return importance;
+    }
+
+    /**
+     * Returns the distance from a point to a segment on the plane.
+     */
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.myapplication;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SpatialGridIndex buckets points into a uniform grid of square cells, so all points within
+ * one cell size of a location are found by looking at the 3 x 3 cells around it instead of
+ * scanning every point. Points are identified by an int id chosen by the caller, typically
+ * an index into the caller's own arrays. Inserting is not thread-safe; once an index is fully
+ * built and safely published, it may be queried from any thread.
+ */
+public class SpatialGridIndex {
+    /**
+     * Approximate length of one degree of latitude, in meters.
+     */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    /**
+     * Initial capacity of a cell's id array.
+     */
+    private static final int INITIAL_CELL_CAPACITY = 4;
+
+    /**
+     * Receives the ids found by a query.
+     */
+    public interface Visitor {
+        /**
+         * Called once for every id in the cells around the query location.
+         *
+         * @param id The id of a point that may be within range.
+         */
+        void visit(int id);
+    }
+
+    /**
+     * Cell size in meters.
+     */
+    private final double cellSizeMeters;
+
+    /**
+     * Cell height in degrees of latitude.
+     */
+    private final double cellLat;
+
+    /**
+     * Cell width in degrees of longitude, at the reference latitude.
+     */
+    private final double cellLng;
+
+    /**
+     * Ids per cell. The first element of each array is the number of ids that follow.
+     */
+    private final Map<Long, int[]> cells = new HashMap<>();
+
+    /**
+     * Number of points in the index.
+     */
+    private int size;
+
+    /**
+     * Constructs a new SpatialGridIndex.
+     *
+     * @param cellSizeMeters The cell size, which is also the largest radius a query can cover.
+     * @param referenceLatitude A latitude near the indexed points, used to size cells in longitude.
+     */
+    public SpatialGridIndex(double cellSizeMeters, double referenceLatitude) {
+        this.cellSizeMeters = cellSizeMeters;
+        cellLat = cellSizeMeters / METERS_PER_DEGREE;
+        double cosLat = Math.max(0.01, Math.cos(Math.toRadians(referenceLatitude)));
+        cellLng = cellLat / cosLat;
+    }
+
+    /**
+     * Adds a point to the index.
+     *
+     * @param id The id of the point.
+     * @param latitude The latitude of the point.
+     * @param longitude The longitude of the point.
+     */
+    public void insert(int id, double latitude, double longitude) {
+        long key = cellKey(row(latitude), column(longitude));
+        int[] cell = cells.get(key);
+        if (cell == null) {
+            cell = new int[INITIAL_CELL_CAPACITY + 1];
+            cells.put(key, cell);
+        } else if (cell[0] + 1 == cell.length) {
+            int[] grown = new int[cell.length * 2 - 1];
+            System.arraycopy(cell, 0, grown, 0, cell.length);
+            cell = grown;
+            cells.put(key, cell);
+        }
+        cell[++cell[0]] = id;
+        size++;
+    }
+
+    /**
+     * Visits every id in the cell containing the location and its eight neighbours. This
+     * includes every point within one cell size; callers check the exact distance themselves.
+     *
+     * @param latitude The latitude of the query location.
+     * @param longitude The longitude of the query location.
+     * @param visitor The visitor receiving the candidate ids.
+     */
+    public void forEachNear(double latitude, double longitude, Visitor visitor) {
+        visitCells(row(latitude), column(longitude), 1, visitor);
+    }
+
+    /**
+     * Visits every id in the cells overlapping a square around the location whose half-width
+     * is the given radius, which includes every point within the radius. Callers check the
+     * exact distance themselves.
+     *
+     * @param latitude The latitude of the query location.
+     * @param longitude The longitude of the query location.
+     * @param radiusMeters The search radius in meters.
+     * @param visitor The visitor receiving the candidate ids.
+     */
+    public void forEachWithin(double latitude, double longitude, double radiusMeters, Visitor visitor) {
+        int rings = Math.max(1, (int) Math.ceil(radiusMeters / cellSizeMeters));
+        visitCells(row(latitude), column(longitude), rings, visitor);
+    }
+
+    /**
+     * Visits every id in the cells up to the given number of rings around a cell.
+     */
+    private void visitCells(long row, long column, int rings, Visitor visitor) {
+        for (long r = row - rings; r <= row + rings; r++) {
+            for (long c = column - rings; c <= column + rings; c++) {
+                int[] cell = cells.get(cellKey(r, c));
+                if (cell == null) {
+                    continue;
+                }
+                for (int i = 1; i <= cell[0]; i++) {
+                    visitor.visit(cell[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of points in the index.
+     *
+     * @return The number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the distance between two locations in meters.
+     *
+     * @param lat1 The latitude of the first location.
+     * @param lng1 The longitude of the first location.
+     * @param lat2 The latitude of the second location.
+     * @param lng2 The longitude of the second location.
+     * @return The distance in meters.
+     */
+    public static float distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        float[] results = new float[1];
+        android.location.Location.distanceBetween(lat1, lng1, lat2, lng2, results);
+        return results[0];
+    }
+
+    /**
+     * Returns the grid row of a latitude.
+     */
+    private long row(double latitude) {
+        return (long) Math.floor(latitude / cellLat);
+    }
+
+    /**
+     * Returns the grid column of a longitude.
+     */
+    private long column(double longitude) {
+        return (long) Math.floor(longitude / cellLng);
+    }
+
+    /**
+     * Packs a row and column into one map key.
+     */
+    private static long cellKey(long row, long column) {
+        return (row << 32) ^ (column & 0xffffffffL);
+    }
+}
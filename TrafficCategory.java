@@ -0,0 +1,199 @@
+package com.example.myapplication;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * TrafficCategory maps traffic items and user preferences onto category bits.
+ * Each item is classified once when it is ingested, and the preference map is compiled
+ * into a bitmask, so preference filtering is a single AND per item.
+ */
+public final class TrafficCategory {
+    /** Key under which an item stores its precomputed category bit. */
+    public static final String KEY_CATEGORY = "categoryBit";
+
+    /** Bit for items that match no category and are never shown. */
+    public static final int NONE = 0;
+
+    /** Bit for high severity incidents. */
+    public static final int INCIDENT_HIGH = 1;
+
+    /** Bit for medium severity incidents. */
+    public static final int INCIDENT_MEDIUM = 1 << 1;
+
+    /** Bit for low severity incidents. */
+    public static final int INCIDENT_LOW = 1 << 2;
+
+    /** Bit for traffic events. */
+    public static final int EVENT = 1 << 3;
+
+    /** Bit for accidents. */
+    public static final int ACCIDENT = 1 << 4;
+
+    /** Bit for user-submitted reports. */
+    public static final int USER_REPORT = 1 << 5;
+
+    /** Number of category bits. */
+    public static final int COUNT = 6;
+
+    /** Mask with every category enabled. */
+    public static final int ALL = (1 << COUNT) - 1;
+
+    private TrafficCategory() {
+    }
+
+    /**
+     * Classifies a NetTravelData item by its type and severity.
+     * Items with a missing or unknown type or severity are classified as {@link #NONE}.
+     *
+     * @param item The traffic item.
+     * @return The category bit of the item.
+     */
+    public static int classify(Map<String, Object> item) {
+        Object type = item.get("type");
+        if (!(type instanceof String)) {
+            return NONE;
+        }
+        switch (((String) type).toLowerCase(Locale.ROOT)) {
+            case "incident":
+                Object severity = item.get("severityTypeRefDescription");
+                if (!(severity instanceof String)) {
+                    return NONE;
+                }
+                switch (((String) severity).toLowerCase(Locale.ROOT)) {
+                    case "high":
+                        return INCIDENT_HIGH;
+                    case "medium":
+                        return INCIDENT_MEDIUM;
+                    case "low":
+                        return INCIDENT_LOW;
+                    default:
+                        return NONE;
+                }
+            case "event":
+                return EVENT;
+            case "accident":
+                return ACCIDENT;
+            default:
+                return NONE;
+        }
+    }
+
+    /**
+     * Classifies an item and stores the result in the item under {@link #KEY_CATEGORY}.
+     *
+     * @param item The traffic item.
+     * @return The category bit of the item.
+     */
+    public static int tag(Map<String, Object> item) {
+        int category = classify(item);
+        item.put(KEY_CATEGORY, category);
+        return category;
+    }
+
+    /**
+     * Returns the category bit of an item, using the value stored at ingest when present.
+     *
+     * @param item The traffic item.
+     * @return The category bit of the item.
+     */
+    public static int categoryOf(Map<String, Object> item) {
+        Object category = item.get(KEY_CATEGORY);
+        if (category instanceof Number) {
+            return ((Number) category).intValue();
+        }
+        return classify(item);
+    }
+
+    /**
+     * Compiles a preference map into a bitmask of the categories that should be shown.
+     * Missing preferences default to shown.
+     *
+     * @param prefs The user preferences, may be null.
+     * @return The bitmask of enabled categories.
+     */
+    public static int compileMask(Map<String, Boolean> prefs) {
+        if (prefs == null) {
+            return ALL;
+        }
+        int mask = 0;
+        if (isEnabled(prefs, "showIncidentHigh")) mask |= INCIDENT_HIGH;
+        if (isEnabled(prefs, "showIncidentMedium")) mask |= INCIDENT_MEDIUM;
+        if (isEnabled(prefs, "showIncidentLow")) mask |= INCIDENT_LOW;
+        if (isEnabled(prefs, "showEvent")) mask |= EVENT;
+        if (isEnabled(prefs, "showAccident")) mask |= ACCIDENT;
+        if (isEnabled(prefs, "showUserReports")) mask |= USER_REPORT;
+        return mask;
+    }
+
+    /**
+     * Splits the items of a snapshot into one ascending array of snapshot indices per category bit.
+     * Items classified as {@link #NONE} are dropped.
+     *
+     * @param snapshot The traffic snapshot.
+     * @return An array indexed by bit position, holding the item indices of each category.
+     */
+    public static int[][] partition(TrafficSnapshot snapshot) {
+        int[] counts = new int[COUNT];
+        for (int i = 0; i < snapshot.size(); i++) {
+            int category = snapshot.getCategory(i);
+            if (category != NONE) {
+                counts[Integer.numberOfTrailingZeros(category)]++;
+            }
+        }
+        int[][] partitions = new int[COUNT][];
+        for (int bit = 0; bit < COUNT; bit++) {
+            partitions[bit] = new int[counts[bit]];
+        }
+        int[] filled = new int[COUNT];
+        for (int i = 0; i < snapshot.size(); i++) {
+            int category = snapshot.getCategory(i);
+            if (category != NONE) {
+                int bit = Integer.numberOfTrailingZeros(category);
+                partitions[bit][filled[bit]++] = i;
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * Merges the partitions whose category bit is set in the mask into a view over the snapshot.
+     * The merge keeps the snapshot order and allocates only the index array of the result.
+     *
+     * @param snapshot The traffic snapshot the partitions were built from.
+     * @param partitions The partitions returned by {@link #partition(TrafficSnapshot)}.
+     * @param mask The bitmask of enabled categories.
+     * @return A view of the items of every enabled category.
+     */
+    public static TrafficIndexView select(TrafficSnapshot snapshot, int[][] partitions, int mask) {
+        int size = 0;
+        for (int bit = 0; bit < partitions.length; bit++) {
+            if ((mask & (1 << bit)) != 0) {
+                size += partitions[bit].length;
+            }
+        }
+        int[] selected = new int[size];
+        int[] heads = new int[partitions.length];
+        for (int n = 0; n < size; n++) {
+            int best = -1;
+            for (int bit = 0; bit < partitions.length; bit++) {
+                if ((mask & (1 << bit)) == 0 || heads[bit] >= partitions[bit].length) {
+                    continue;
+                }
+                if (best < 0 || partitions[bit][heads[bit]] < partitions[best][heads[best]]) {
+                    best = bit;
+                }
+            }
+            selected[n] = partitions[best][heads[best]++];
+        }
+        return new TrafficIndexView(snapshot, selected, size);
+    }
+
+    /**
+     * Returns whether a preference is enabled, treating missing values as enabled.
+     */
+    private static boolean isEnabled(Map<String, Boolean> prefs, String key) {
+        Boolean value = prefs.get(key);
+        return value == null || value;
+    }
+}
@@ -5,7 +5,6 @@ import android.util.Log;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -63,27 +62,24 @@ public class TrafficDataRepository {
 
     /**
      * Fetches traffic data for all datasets (incident, accident, event).
+     * The three datasets are combined into a single immutable {@link TrafficSnapshot},
+     * whose item list is passed to the callback.
      *
      * @param callback The callback to handle the result
      */
     public void fetchTrafficData(TrafficDataCallback callback) {
-        List<Map<String, Object>> allData = new ArrayList<>();
         fetchDataset("traffic/incident", new TrafficDataCallback() {
             @Override
-            public void onDataFetched(List<Map<String, Object>> data) {
-                allData.addAll(data);
-                incidentDataManager.setIncidentData(data);
+            public void onDataFetched(List<Map<String, Object>> incidentData) {
                 fetchDataset("traffic/accident", new TrafficDataCallback() {
                     @Override
-                    public void onDataFetched(List<Map<String, Object>> data) {
-                        allData.addAll(data);
-                        incidentDataManager.setAccidentData(data);
+                    public void onDataFetched(List<Map<String, Object>> accidentData) {
                         fetchDataset("traffic/event", new TrafficDataCallback() {
                             @Override
-                            public void onDataFetched(List<Map<String, Object>> data) {
-                                allData.addAll(data);
-                                incidentDataManager.setEventData(data);
-                                callback.onDataFetched(allData);
+                            public void onDataFetched(List<Map<String, Object>> eventData) {
+                                TrafficSnapshot snapshot = TrafficSnapshot.of(incidentData, accidentData, eventData);
+                                incidentDataManager.setSnapshot(snapshot);
+                                callback.onDataFetched(snapshot.getItems());
                             }
                             @Override
                             public void onError(String error) {
@@ -127,7 +123,7 @@ public class TrafficDataRepository {
     }
 
     /**
-     * Parses JSON data into a List of Map objects.
+     * Parses JSON data into a List of Map objects and tags each item with its category bit.
      *
      * @param jsonData The JSON string to parse
      * @return A List of Map objects representing the parsed data
@@ -135,10 +131,22 @@ public class TrafficDataRepository {
     private List<Map<String, Object>> parseJsonData(String jsonData) {
         Type type = new TypeToken<List<Map<String, Object>>>(){}.getType();
         List<Map<String, Object>> data = gson.fromJson(jsonData, type);
+        for (Map<String, Object> item : data) {
+            TrafficCategory.tag(item);
+        }
         Log.d(TAG, "Parsed JSON data: " + data.size() + " items");
         return data;
     }
 
+    /**
+     * Returns the snapshot produced by the latest successful fetch.
+     *
+     * @return The latest traffic snapshot.
+     */
+    public TrafficSnapshot getSnapshot() {
+        return incidentDataManager.getSnapshot();
+    }
+
     /**
      * Retrieves nearby traffic items based on geographical coordinates.
      *
@@ -0,0 +1,110 @@
+package com.example.myapplication;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * TrafficIndexView is a read-only list of the items of a {@link TrafficSnapshot}
+ * selected by an array of indices. It lets filtered and nearby results share the
+ * snapshot's items instead of copying them into new lists. A view may carry a
+ * {@link FusionIndex}, in which case confirmed items are served in their fused form.
+ */
+public final class TrafficIndexView extends AbstractList<Map<String, Object>> implements RandomAccess {
+    /** The snapshot whose items are viewed. */
+    private final TrafficSnapshot snapshot;
+
+    /** Indices into the snapshot, of which the first {@link #size} are used. */
+    private final int[] indices;
+
+    /** Number of indices in use. */
+    private final int size;
+
+    /** Fusion with user reports over the same snapshot, or null to serve the plain items. */
+    private final FusionIndex fusion;
+
+    /**
+     * Constructs a new TrafficIndexView.
+     *
+     * @param snapshot The snapshot whose items are viewed.
+     * @param indices Indices into the snapshot. The array is owned by the view from now on.
+     * @param size Number of leading entries of {@code indices} that are part of the view.
+     */
+    public TrafficIndexView(TrafficSnapshot snapshot, int[] indices, int size) {
+        this(snapshot, indices, size, null);
+    }
+
+    /**
+     * Constructs a new TrafficIndexView serving items through a fusion.
+     */
+    private TrafficIndexView(TrafficSnapshot snapshot, int[] indices, int size, FusionIndex fusion) {
+        this.snapshot = snapshot;
+        this.indices = indices;
+        this.size = size;
+        this.fusion = fusion;
+    }
+
+    /**
+     * Returns a view of the same items that serves confirmed items in their fused form.
+     * The indices are shared, not copied.
+     *
+     * @param fusion A fusion built over this view's snapshot.
+     * @return The fused view, or this view if the fusion belongs to another snapshot.
+     */
+    public TrafficIndexView withFusion(FusionIndex fusion) {
+        if (fusion == null || fusion.getSnapshot() != snapshot) {
+            return this;
+        }
+        return new TrafficIndexView(snapshot, indices, size, fusion);
+    }
+
+    /**
+     * Returns a view of the items whose snapshot index is in the given set, in the same order.
+     *
+     * @param keep The snapshot indices to keep.
+     * @return The narrowed view, or this view if every item is kept.
+     */
+    public TrafficIndexView retain(BitSet keep) {
+        int[] kept = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep.get(indices[i])) {
+                kept[count++] = indices[i];
+            }
+        }
+        return count == size ? this : new TrafficIndexView(snapshot, kept, count, fusion);
+    }
+
+    @Override
+    public Map<String, Object> get(int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + size);
+        }
+        return fusion != null ? fusion.getItem(indices[position]) : snapshot.get(indices[position]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the snapshot index of the item at the given position of the view.
+     *
+     * @param position The position in the view.
+     * @return The index of the item in the snapshot.
+     */
+    public int indexAt(int position) {
+        return indices[position];
+    }
+
+    /**
+     * Returns the snapshot this view selects from.
+     *
+     * @return The underlying snapshot.
+     */
+    public TrafficSnapshot getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.myapplication;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TrafficSnapshot is an immutable view of one refresh of the NetTravelData feeds.
+ * Incidents, accidents and events are stored once in a single list, alongside primitive
+ * arrays of their category bits and coordinates, so that filtered and nearby results can be
+ * expressed as {@link TrafficIndexView}s over the snapshot instead of copies of the data.
+ */
+public final class TrafficSnapshot {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "TrafficSnapshot";
+
+    /** An empty snapshot, used before the first refresh. */
+    public static final TrafficSnapshot EMPTY = new TrafficSnapshot(new ArrayList<>());
+
+    /** All items of the snapshot, in incident, accident, event order. */
+    private final List<Map<String, Object>> items;
+
+    /** Category bit of each item, see {@link TrafficCategory}. */
+    private final int[] categories;
+
+    /** Latitude of each item, or NaN if the item has no valid location. */
+    private final double[] latitudes;
+
+    /** Longitude of each item, or NaN if the item has no valid location. */
+    private final double[] longitudes;
+
+    /** Cell size of the snapshot's spatial index, in meters. */
+    public static final double GRID_CELL_METERS = 500;
+
+    /** Grid index over the located items, built on first use. */
+    private volatile SpatialGridIndex spatialIndex;
+
+    /** Index of the items' validity intervals, built on first use. */
+    private volatile ValidityIndex validityIndex;
+
+    /**
+     * Constructs a new TrafficSnapshot and extracts the category and coordinates of every item.
+     *
+     * @param items The items of the snapshot. The list is owned by the snapshot from now on.
+     */
+    private TrafficSnapshot(List<Map<String, Object>> items) {
+        this.items = Collections.unmodifiableList(items);
+        int size = items.size();
+        categories = new int[size];
+        latitudes = new double[size];
+        longitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> item = items.get(i);
+            categories[i] = TrafficCategory.categoryOf(item);
+            extractLocation(item, i);
+        }
+    }
+
+    /**
+     * Builds a snapshot from the three parsed NetTravelData feeds.
+     *
+     * @param incidentData The parsed incident items.
+     * @param accidentData The parsed accident items.
+     * @param eventData The parsed event items.
+     * @return The snapshot holding every item once.
+     */
+    public static TrafficSnapshot of(List<Map<String, Object>> incidentData,
+                                     List<Map<String, Object>> accidentData,
+                                     List<Map<String, Object>> eventData) {
+        List<Map<String, Object>> items = new ArrayList<>(
+                incidentData.size() + accidentData.size() + eventData.size());
+        items.addAll(incidentData);
+        items.addAll(accidentData);
+        items.addAll(eventData);
+        return new TrafficSnapshot(items);
+    }
+
+    /**
+     * Returns every item of the snapshot as an unmodifiable list.
+     *
+     * @return The items of the snapshot.
+     */
+    public List<Map<String, Object>> getItems() {
+        return items;
+    }
+
+    /**
+     * Returns the number of items in the snapshot.
+     *
+     * @return The item count.
+     */
+    public int size() {
+        return categories.length;
+    }
+
+    /**
+     * Returns the item at the given index.
+     *
+     * @param index The item index.
+     * @return The item.
+     */
+    public Map<String, Object> get(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * Returns the category bit of the item at the given index.
+     *
+     * @param index The item index.
+     * @return The category bit.
+     */
+    public int getCategory(int index) {
+        return categories[index];
+    }
+
+    /**
+     * Returns the latitude of the item at the given index.
+     *
+     * @param index The item index.
+     * @return The latitude, or NaN if the item has no valid location.
+     */
+    public double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    /**
+     * Returns the longitude of the item at the given index.
+     *
+     * @param index The item index.
+     * @return The longitude, or NaN if the item has no valid location.
+     */
+    public double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Returns the grid index over the items that have a valid location, keyed by item index.
+     * The index is built once per snapshot on first use and shared by every reader.
+     *
+     * @return The spatial index of the snapshot.
+     */
+    public SpatialGridIndex getSpatialIndex() {
+        SpatialGridIndex index = spatialIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = spatialIndex;
+                if (index == null) {
+                    index = buildSpatialIndex();
+                    spatialIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the items' validity intervals, keyed by item index. Items without
+     * start or end times are valid at all times. Built once per snapshot on first use.
+     *
+     * @return The validity index of the snapshot.
+     */
+    public ValidityIndex getValidityIndex() {
+        ValidityIndex index = validityIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = validityIndex;
+                if (index == null) {
+                    long[] starts = new long[items.size()];
+                    long[] ends = new long[items.size()];
+                    for (int i = 0; i < starts.length; i++) {
+                        starts[i] = ValidityIndex.startOf(items.get(i));
+                        ends[i] = ValidityIndex.endOf(items.get(i));
+                    }
+                    index = new ValidityIndex(starts, ends);
+                    validityIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Builds the grid index over the located items.
+     */
+    private SpatialGridIndex buildSpatialIndex() {
+        double referenceLatitude = 0;
+        for (int i = 0; i < latitudes.length; i++) {
+            if (hasLocation(i)) {
+                referenceLatitude = latitudes[i];
+                break;
+            }
+        }
+        SpatialGridIndex index = new SpatialGridIndex(GRID_CELL_METERS, referenceLatitude);
+        for (int i = 0; i < latitudes.length; i++) {
+            if (hasLocation(i)) {
+                index.insert(i, latitudes[i], longitudes[i]);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns whether the item at the given index has a valid location.
+     *
+     * @param index The item index.
+     * @return True if the item has a valid location.
+     */
+    public boolean hasLocation(int index) {
+        return !Double.isNaN(latitudes[index]);
+    }
+
+    /**
+     * Reads the coordinates of an item into the coordinate arrays.
+     * Items may carry their location in a nested "point" map or as top-level fields.
+     */
+    private void extractLocation(Map<String, Object> item, int index) {
+        double itemLat = 0;
+        double itemLng = 0;
+        try {
+            Object point = item.get("point");
+            if (point instanceof Map) {
+                Map<?, ?> pointMap = (Map<?, ?>) point;
+                itemLat = getDoubleValue(pointMap.get("latitude"));
+                itemLng = getDoubleValue(pointMap.get("longitude"));
+            } else if (item.containsKey("latitude") && item.containsKey("longitude")) {
+                itemLat = getDoubleValue(item.get("latitude"));
+                itemLng = getDoubleValue(item.get("longitude"));
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error reading location of item: " + item, e);
+        }
+
+        if (itemLat == 0 && itemLng == 0) {
+            latitudes[index] = Double.NaN;
+            longitudes[index] = Double.NaN;
+        } else {
+            latitudes[index] = itemLat;
+            longitudes[index] = itemLng;
+        }
+    }
+
+    /**
+     * Helper method to safely convert an Object to a double value.
+     * @param value The object to convert
+     * @return The double value, or 0 if conversion fails
+     */
+    static double getDoubleValue(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof String) {
+            try {
+                return Double.parseDouble((String) value);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Error parsing double value: " + value, e);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.SetOptions;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * UserPreferencesStore is the single source of the user's display preferences and points.
+ * Values are kept in local storage so screens start instantly. Preferences are kept current by
+ * one shared snapshot listener on the user's document (registered through the
+ * {@link FirestoreListenerManager}) and are written through to Firestore on save. Points live
+ * in the sharded {@link PointsCounter}; a second shared listener on the shards keeps the
+ * cached total current, so showing the points never needs a read of its own.
+ * All methods must be called on the main thread.
+ */
+public class UserPreferencesStore {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "UserPreferencesStore";
+
+    /**
+     * Name of the SharedPreferences file backing the local cache.
+     */
+    private static final String PREFS_NAME = "user_preferences";
+
+    /**
+     * Local key holding the id of the user whose values are cached.
+     */
+    private static final String KEY_UID = "uid";
+
+    /**
+     * Local key holding the user's last read point total.
+     */
+    private static final String KEY_POINTS = "points";
+
+    /**
+     * Names of the preference flags, used both as Firestore fields and local keys.
+     */
+    public static final String[] PREFERENCE_KEYS = {
+            "showIncidentHigh",
+            "showIncidentMedium",
+            "showIncidentLow",
+            "showEvent",
+            "showAccident",
+            "showUserReports"
+    };
+
+    /**
+     * The application-wide instance.
+     */
+    private static UserPreferencesStore instance;
+
+    /**
+     * Local storage for the cached values.
+     */
+    private final SharedPreferences localStore;
+
+    /**
+     * FirebaseFirestore instance for database operations.
+     */
+    private final FirebaseFirestore db;
+
+    /**
+     * LiveData containing the current preferences.
+     */
+    private final MutableLiveData<Map<String, Boolean>> preferences = new MutableLiveData<>();
+
+    /**
+     * LiveData containing the current points.
+     */
+    private final MutableLiveData<Long> points = new MutableLiveData<>();
+
+    /**
+     * Registration of the snapshot listener on the user's document, or null if not listening.
+     */
+    private ListenerRegistration registration;
+
+    /**
+     * Registration of the snapshot listener on the user's point shards, or null if not listening.
+     */
+    private ListenerRegistration pointsRegistration;
+
+    /**
+     * Points stored on the user's document before sharding, or null until it has been received.
+     */
+    private Long legacyPoints;
+
+    /**
+     * Sum of the user's point shards, or null until they have been received.
+     */
+    private Long shardPoints;
+
+    /**
+     * Id of the user whose document is being listened to, or null if not listening.
+     */
+    private String listeningUid;
+
+    /**
+     * Constructs a new UserPreferencesStore and loads the cached values from local storage.
+     *
+     * @param context The application context.
+     */
+    private UserPreferencesStore(Context context) {
+        localStore = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        db = FirebaseFirestore.getInstance();
+        preferences.setValue(readLocalPreferences());
+        points.setValue(localStore.getLong(KEY_POINTS, 0L));
+    }
+
+    /**
+     * Returns the application-wide UserPreferencesStore.
+     *
+     * @param context Any context, used to access the application context.
+     * @return The shared store.
+     */
+    public static UserPreferencesStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new UserPreferencesStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the user's preferences. The value is available immediately from local storage.
+     *
+     * @return LiveData<Map<String, Boolean>> The user's preferences.
+     */
+    public LiveData<Map<String, Boolean>> getPreferences() {
+        return preferences;
+    }
+
+    /**
+     * Returns the user's points. The value is available immediately from local storage.
+     *
+     * @return LiveData<Long> The user's points.
+     */
+    public LiveData<Long> getPoints() {
+        return points;
+    }
+
+    /**
+     * Starts listening to the given user's document and point shards. Calling this again for
+     * the same user does nothing, so there is at most one listener of each.
+     *
+     * @param uid The id of the signed-in user.
+     */
+    public void start(String uid) {
+        if (uid.equals(listeningUid)) {
+            return;
+        }
+        stop();
+        if (!uid.equals(localStore.getString(KEY_UID, null))) {
+            localStore.edit().clear().putString(KEY_UID, uid).apply();
+            preferences.setValue(getDefaultPreferences());
+            points.setValue(0L);
+        }
+
+        listeningUid = uid;
+        registration = FirestoreListenerManager.getInstance().listen(db.collection("Users").document(uid),
+                (documentSnapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Listen failed.", e);
+                        return;
+                    }
+                    if (documentSnapshot != null) {
+                        legacyPoints = PointsCounter.legacyPointsOf(documentSnapshot);
+                        updatePoints();
+                        if (documentSnapshot.exists()) {
+                            applySnapshot(documentSnapshot);
+                        }
+                    }
+                });
+        pointsRegistration = FirestoreListenerManager.getInstance().listen("Users/" + uid + "/pointShards",
+                PointsCounter.shards(db, uid), MetadataChanges.EXCLUDE, (snapshots, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Listen to points failed.", e);
+                        return;
+                    }
+                    if (snapshots != null) {
+                        shardPoints = PointsCounter.sumOf(snapshots);
+                        updatePoints();
+                    }
+                });
+    }
+
+    /**
+     * Stops listening to the user's document and point shards.
+     */
+    public void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        if (pointsRegistration != null) {
+            pointsRegistration.remove();
+            pointsRegistration = null;
+        }
+        legacyPoints = null;
+        shardPoints = null;
+        listeningUid = null;
+    }
+
+    /**
+     * Stops listening and resets the cached values to the defaults, for use on sign-out.
+     */
+    public void clear() {
+        stop();
+        localStore.edit().clear().apply();
+        preferences.setValue(getDefaultPreferences());
+        points.setValue(0L);
+    }
+
+    /**
+     * Saves the user's preferences locally and writes them through to Firestore.
+     * Observers see the new values immediately; the returned task completes once Firestore
+     * has accepted the write.
+     *
+     * @param uid The id of the signed-in user.
+     * @param newPreferences The preferences to save.
+     * @return The task of the Firestore write.
+     */
+    public Task<Void> save(String uid, Map<String, Boolean> newPreferences) {
+        writeLocalPreferences(newPreferences);
+        preferences.setValue(new HashMap<>(newPreferences));
+        return db.collection("Users").document(uid)
+                .set(new HashMap<String, Object>(newPreferences), SetOptions.merge());
+    }
+
+    /**
+     * Caches the user's point total once both the user's document and the point shards have
+     * been received.
+     */
+    private void updatePoints() {
+        if (legacyPoints == null || shardPoints == null) {
+            return;
+        }
+        long total = legacyPoints + shardPoints;
+        Long cachedPoints = points.getValue();
+        if (cachedPoints == null || cachedPoints != total) {
+            localStore.edit().putLong(KEY_POINTS, total).apply();
+            points.setValue(total);
+        }
+    }
+
+    /**
+     * Parses the preference flags from a user document, defaulting missing flags to true.
+     *
+     * @param documentSnapshot The user's document.
+     * @return The user's preferences.
+     */
+    public static Map<String, Boolean> parsePreferences(DocumentSnapshot documentSnapshot) {
+        Map<String, Boolean> prefs = new HashMap<>();
+        for (String key : PREFERENCE_KEYS) {
+            Boolean value = documentSnapshot.getBoolean(key);
+            prefs.put(key, value != null ? value : true);
+        }
+        return prefs;
+    }
+
+    /**
+     * Returns the default preferences, with every category shown.
+     *
+     * @return The default preferences.
+     */
+    public static Map<String, Boolean> getDefaultPreferences() {
+        Map<String, Boolean> prefs = new HashMap<>();
+        for (String key : PREFERENCE_KEYS) {
+            prefs.put(key, true);
+        }
+        return prefs;
+    }
+
+    /**
+     * Applies the preferences of a snapshot of the user's document to the cache and local storage.
+     */
+    private void applySnapshot(DocumentSnapshot documentSnapshot) {
+        Map<String, Boolean> prefs = parsePreferences(documentSnapshot);
+        if (!prefs.equals(preferences.getValue())) {
+            writeLocalPreferences(prefs);
+            preferences.setValue(prefs);
+        }
+    }
+
+    /**
+     * Reads the preferences from local storage, defaulting missing flags to true.
+     */
+    private Map<String, Boolean> readLocalPreferences() {
+        Map<String, Boolean> prefs = new HashMap<>();
+        for (String key : PREFERENCE_KEYS) {
+            prefs.put(key, localStore.getBoolean(key, true));
+        }
+        return prefs;
+    }
+
+    /**
+     * Writes the preferences to local storage.
+     */
+    private void writeLocalPreferences(Map<String, Boolean> prefs) {
+        SharedPreferences.Editor editor = localStore.edit();
+        for (String key : PREFERENCE_KEYS) {
+            Boolean value = prefs.get(key);
+            editor.putBoolean(key, value == null || value);
+        }
+        editor.apply();
+    }
+}
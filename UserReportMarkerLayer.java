@@ -0,0 +1,249 @@
+package com.example.myapplication;
+
+import android.util.Log;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * UserReportMarkerLayer owns the map markers for user-submitted reports.
+ * Markers are keyed by the Firestore document id of each report, so a refresh only
+ * adds, updates or removes the markers whose reports actually changed.
+ */
+public class UserReportMarkerLayer {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "UserReportMarkerLayer";
+
+    /**
+     * Maximum number of report markers kept on the map. When there are more reports, only the
+     * newest are drawn.
+     */
+    private static final int MAX_MARKERS = 500;
+
+    /**
+     * Key under which a report map stores its Firestore document id.
+     */
+    public static final String KEY_ID = "id";
+
+    /**
+     * Map on which the markers are drawn.
+     */
+    private final GoogleMap map;
+
+    /**
+     * Live markers keyed by report id.
+     */
+    private final LinkedHashMap<String, Entry> markers = new LinkedHashMap<>();
+
+    /**
+     * A marker together with the fingerprint of the report it was built from.
+     */
+    private static class Entry {
+        /** The marker shown on the map. */
+        final Marker marker;
+
+        /** Hash of the displayed report fields, used to detect changes. */
+        int fingerprint;
+
+        Entry(Marker marker, int fingerprint) {
+            this.marker = marker;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Constructs a new UserReportMarkerLayer.
+     *
+     * @param map The map on which report markers are drawn.
+     */
+    public UserReportMarkerLayer(GoogleMap map) {
+        this.map = map;
+    }
+
+    /**
+     * Brings the markers in line with the given reports.
+     * Unchanged reports cost a hash lookup, changed reports update their marker in place,
+     * and markers whose report is no longer present are removed. Beyond {@link #MAX_MARKERS}
+     * reports, the input is first cut down to the newest ones, so the drawn set is the same on
+     * every refresh of the same reports.
+     *
+     * @param reports The current list of user reports.
+     */
+    public void update(List<Map<String, Object>> reports) {
+        if (reports == null) {
+            Log.w(TAG, "update: reports list is null");
+            return;
+        }
+        if (reports.size() > MAX_MARKERS) {
+            reports = newest(reports, MAX_MARKERS);
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (Map<String, Object> report : reports) {
+            try {
+                Double latitude = getDoubleFromObject(report.get("latitude"));
+                Double longitude = getDoubleFromObject(report.get("longitude"));
+                if (latitude == null || longitude == null) {
+                    Log.w(TAG, "Invalid location data in report: " + report);
+                    continue;
+                }
+
+                String key = keyFor(report, latitude, longitude);
+                if (!seen.add(key)) {
+                    continue;
+                }
+
+                String type = (String) report.get("type");
+                String title = (String) report.get("title");
+                String snippet = (String) report.get("snippet");
+                Object count = report.get(ReportClusterer.KEY_REPORT_COUNT);
+                if (count instanceof Number && ((Number) count).intValue() > 1) {
+                    title = title + " (" + count + " reports)";
+                }
+                int fingerprint = Objects.hash(type, title, snippet, latitude, longitude);
+
+                Entry entry = markers.get(key);
+                if (entry == null) {
+                    addMarker(key, type, title, snippet, latitude, longitude, fingerprint);
+                } else if (entry.fingerprint != fingerprint) {
+                    entry.marker.setPosition(new LatLng(latitude, longitude));
+                    entry.marker.setTitle(title);
+                    entry.marker.setSnippet(snippet);
+                    entry.marker.setIcon(BitmapDescriptorFactory.defaultMarker(getMarkerColor(type)));
+                    entry.fingerprint = fingerprint;
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error processing report: " + report, e);
+            }
+        }
+
+        Iterator<Map.Entry<String, Entry>> iterator = markers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (!seen.contains(entry.getKey())) {
+                entry.getValue().marker.remove();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes every report marker from the map.
+     */
+    public void clear() {
+        for (Entry entry : markers.values()) {
+            entry.marker.remove();
+        }
+        markers.clear();
+    }
+
+    /**
+     * Returns the number of report markers currently on the map.
+     *
+     * @return The marker count.
+     */
+    public int size() {
+        return markers.size();
+    }
+
+    /**
+     * Adds a marker for a report.
+     */
+    private void addMarker(String key, String type, String title, String snippet,
+                           double latitude, double longitude, int fingerprint) {
+        MarkerOptions markerOptions = new MarkerOptions()
+                .position(new LatLng(latitude, longitude))
+                .title(title)
+                .snippet(snippet)
+                .icon(BitmapDescriptorFactory.defaultMarker(getMarkerColor(type)));
+
+        Marker marker = map.addMarker(markerOptions);
+        if (marker == null) {
+            return;
+        }
+        markers.put(key, new Entry(marker, fingerprint));
+    }
+
+    /**
+     * Returns the newest reports by timestamp, in no particular order. Reports without a
+     * timestamp, such as ones not sent yet, count as newest. Ties keep the input order.
+     */
+    private static List<Map<String, Object>> newest(List<Map<String, Object>> reports, int limit) {
+        List<Map<String, Object>> sorted = new ArrayList<>(reports);
+        Collections.sort(sorted, (a, b) -> Long.compare(timestampOf(b), timestampOf(a)));
+        return sorted.subList(0, limit);
+    }
+
+    /**
+     * Returns the timestamp of a report, or Long.MAX_VALUE if it has none.
+     */
+    private static long timestampOf(Map<String, Object> report) {
+        Object timestamp = report.get("timestamp");
+        return timestamp instanceof Number ? ((Number) timestamp).longValue() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the key for a report: its document id, or a key derived from its content
+     * for reports that have not been stored in Firestore yet.
+     */
+    private static String keyFor(Map<String, Object> report, double latitude, double longitude) {
+        Object id = report.get(KEY_ID);
+        if (id instanceof String) {
+            return (String) id;
+        }
+        return "local:" + report.get("type") + ":" + report.get("title") + ":" + latitude + "," + longitude;
+    }
+
+    /**
+     * Returns the marker hue for a user report type.
+     *
+     * @param incidentType The type of incident
+     * @return The marker hue.
+     */
+    private static float getMarkerColor(String incidentType) {
+        if (incidentType == null) {
+            return BitmapDescriptorFactory.HUE_AZURE;
+        }
+        switch (incidentType.toLowerCase()) {
+            case "traffic incident":
+                return BitmapDescriptorFactory.HUE_RED;
+            case "accident":
+                return BitmapDescriptorFactory.HUE_YELLOW;
+            case "event":
+                return BitmapDescriptorFactory.HUE_GREEN;
+            default:
+                return BitmapDescriptorFactory.HUE_AZURE;
+        }
+    }
+
+    /**
+     * Converts an object to a Double value.
+     * @param obj The object to convert
+     * @return The Double value, or null if conversion fails
+     */
+    private static Double getDoubleFromObject(Object obj) {
+        if (obj instanceof Number) {
+            return ((Number) obj).doubleValue();
+        } else if (obj instanceof String) {
+            try {
+                return Double.parseDouble((String) obj);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Error parsing double from string: " + obj, e);
+            }
+        }
+        return null;
+    }
+}
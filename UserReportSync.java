@@ -0,0 +1,364 @@
+package com.example.myapplication;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * UserReportSync keeps the user reports inside the map viewport in sync through live
+ * Firestore snapshot listeners, one per geohash range. Document changes are applied
+ * incrementally to an in-memory report set, and the covered ranges are remembered so the
+ * listeners can be re-attached right after a process restart, where Firestore serves the
+ * first snapshot from its on-disk cache. Every change is also written to the
+ * {@link ReportDatabase}. The report set is only published once every synced range has
+ * delivered its first snapshot, so re-attaching the listeners, as when the app returns to the
+ * foreground, publishes the complete set once instead of one partial set per range.
+ * A report that leaves a range listener, as when newer reports push it past the listener's
+ * limit, only leaves the in-memory set; it is deleted from the database once it has expired.
+ * All methods must be called on the main thread.
+ */
+public class UserReportSync {
+    /**
+     * Tag for logging purposes. Used to identify log messages from this class.
+     */
+    private static final String TAG = "UserReportSync";
+
+    /**
+     * Name of the SharedPreferences file holding the last synced geohash ranges.
+     */
+    private static final String PREFS_NAME = "user_report_sync";
+
+    /**
+     * Local key holding the last synced geohash prefixes.
+     */
+    private static final String KEY_PREFIXES = "prefixes";
+
+    /**
+     * Maximum number of reports a single geohash range listener receives, newest first.
+     */
+    private static final int MAX_REPORTS_PER_RANGE = 500;
+
+    /**
+     * Callback receiving the report set after every change.
+     */
+    public interface Listener {
+        /**
+         * Called when the synced report set has changed.
+         *
+         * @param reports The current reports inside the synced ranges.
+         */
+        void onReportsChanged(List<Map<String, Object>> reports);
+    }
+
+    /**
+     * FirebaseFirestore instance for database operations.
+     */
+    private final FirebaseFirestore db;
+
+    /**
+     * Local storage for the last synced geohash prefixes.
+     */
+    private final SharedPreferences localStore;
+
+    /**
+     * Callback receiving the report set after every change.
+     */
+    private final Listener listener;
+
+    /**
+     * On-device report store receiving every change.
+     */
+    private final ReportDatabase reportDatabase;
+
+    /**
+     * Reports inside the synced ranges, keyed by document id.
+     */
+    private final Map<String, Map<String, Object>> reports = new LinkedHashMap<>();
+
+    /**
+     * Ids of the reports delivered by each range listener, keyed by geohash prefix.
+     */
+    private final Map<String, Set<String>> idsByPrefix = new HashMap<>();
+
+    /**
+     * Live listener registrations keyed by geohash prefix.
+     */
+    private final Map<String, ListenerRegistration> registrations = new HashMap<>();
+
+    /**
+     * Geohash prefixes currently synced. Updated before listeners are attached, so snapshots
+     * replayed synchronously during registration are not ignored.
+     */
+    private final Set<String> activePrefixes = new HashSet<>();
+
+    /**
+     * Whether the report set changed since it was last published.
+     */
+    private boolean unpublishedChanges;
+
+    /**
+     * Constructs a new UserReportSync.
+     *
+     * @param context The context used to access local storage.
+     * @param listener The callback receiving the report set after every change.
+     */
+    public UserReportSync(Context context, Listener listener) {
+        this.db = FirebaseFirestore.getInstance();
+        this.localStore = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.listener = listener;
+        this.reportDatabase = ReportDatabase.getInstance(context);
+    }
+
+    /**
+     * Returns the geohash prefixes synced when the listeners were last attached.
+     *
+     * @return The saved prefixes, or an empty list if none were saved.
+     */
+    public List<String> getSavedPrefixes() {
+        String saved = localStore.getString(KEY_PREFIXES, "");
+        if (saved.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(saved.split(","));
+    }
+
+    /**
+     * Syncs the given geohash ranges. Listeners of ranges that are no longer covered are
+     * removed together with their reports, and listeners are attached for new ranges only.
+     *
+     * @param prefixes The geohash prefixes covering the viewport.
+     */
+    public void setPrefixes(List<String> prefixes) {
+        Set<String> wanted = new HashSet<>(prefixes);
+        boolean changed = false;
+        activePrefixes.clear();
+        activePrefixes.addAll(wanted);
+
+        for (String prefix : new ArrayList<>(registrations.keySet())) {
+            if (!wanted.contains(prefix)) {
+                registrations.remove(prefix).remove();
+                changed |= dropPrefix(prefix);
+            }
+        }
+        for (String prefix : prefixes) {
+            if (!registrations.containsKey(prefix)) {
+                registrations.put(prefix, listenToPrefix(prefix));
+            }
+        }
+
+        localStore.edit().putString(KEY_PREFIXES, TextUtils.join(",", prefixes)).apply();
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * Removes every listener and forgets the report set without publishing, so the owner keeps
+     * showing the last published reports until every range has delivered again.
+     */
+    public void stop() {
+        for (ListenerRegistration registration : registrations.values()) {
+            registration.remove();
+        }
+        registrations.clear();
+        activePrefixes.clear();
+        idsByPrefix.clear();
+        reports.clear();
+        // Publish once every range has delivered again, even if they all turn out empty.
+        unpublishedChanges = true;
+    }
+
+    /**
+     * Removes the reports that have expired from the report set and publishes it if any was
+     * removed. The caller deletes them from the report database.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public void evictExpired(long now) {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Object>> entry : reports.entrySet()) {
+            if (ValidityIndex.reportEndOf(entry.getValue(), now) <= now) {
+                expired.add(entry.getKey());
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        for (String id : expired) {
+            reports.remove(id);
+            for (Set<String> ids : idsByPrefix.values()) {
+                ids.remove(id);
+            }
+        }
+        Log.d(TAG, "Evicted " + expired.size() + " expired reports");
+        publish();
+    }
+
+    /**
+     * Returns whether any range listener is attached.
+     *
+     * @return True if the sync is running.
+     */
+    public boolean isRunning() {
+        return !registrations.isEmpty();
+    }
+
+    /**
+     * Attaches a snapshot listener to the reports of one geohash range submitted within the
+     * report window, newest first, so the limit is spent on reports that can still be shown
+     * rather than on expired ones. Combining the geohash range with the timestamp range needs
+     * a composite index on geohash and timestamp. The window starts when the listener is
+     * attached; reports expiring afterwards are dropped by {@link #evictExpired}.
+     */
+    private ListenerRegistration listenToPrefix(String prefix) {
+        long cutoff = System.currentTimeMillis() - ReportDatabase.REPORT_WINDOW_MS;
+        Query query = db.collection("Reports")
+                .whereGreaterThanOrEqualTo("geohash", prefix)
+                .whereLessThan("geohash", prefix + GeoHash.RANGE_END_SUFFIX)
+                .whereGreaterThan("timestamp", cutoff)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .limit(MAX_REPORTS_PER_RANGE);
+        return FirestoreListenerManager.getInstance().listen("Reports/geohash:" + prefix, query,
+                MetadataChanges.EXCLUDE, (snapshots, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Listen failed for range " + prefix, e);
+                        if (activePrefixes.contains(prefix) && !idsByPrefix.containsKey(prefix)) {
+                            // Do not hold back the other ranges for one that will not deliver.
+                            idsByPrefix.put(prefix, new HashSet<>());
+                            publish();
+                        }
+                        return;
+                    }
+                    if (snapshots != null && activePrefixes.contains(prefix)) {
+                        applyChanges(prefix, snapshots);
+                    }
+                });
+    }
+
+    /**
+     * Applies a snapshot of one range listener to the report set. The first snapshot of a
+     * range is applied in full, because a shared listener may replay a snapshot whose change
+     * list is relative to an earlier one; later snapshots apply only their document changes.
+     * The changes are then written to the report database in one transaction. A removed
+     * document only leaves the listener's results, which for a limited query does not mean the
+     * report was deleted, so it is kept in the database.
+     */
+    private void applyChanges(String prefix, QuerySnapshot snapshots) {
+        Set<String> ids = idsByPrefix.get(prefix);
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> upserts = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        boolean changed = false;
+        boolean firstSnapshot = ids == null;
+
+        if (firstSnapshot) {
+            ids = new HashSet<>();
+            idsByPrefix.put(prefix, ids);
+            for (QueryDocumentSnapshot document : snapshots) {
+                changed |= applyDocument(ids, document, now, upserts, deletes);
+            }
+        } else {
+            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    String id = change.getDocument().getId();
+                    ids.remove(id);
+                    changed |= removeIfUnreferenced(id);
+                } else {
+                    changed |= applyDocument(ids, change.getDocument(), now, upserts, deletes);
+                }
+            }
+        }
+
+        if (!upserts.isEmpty() || !deletes.isEmpty()) {
+            reportDatabase.execute(() -> {
+                reportDatabase.upsert(upserts);
+                reportDatabase.delete(deletes);
+            });
+        }
+        if (changed || (firstSnapshot && unpublishedChanges)) {
+            publish();
+        }
+    }
+
+    /**
+     * Adds or updates one report, or removes it if it has expired.
+     * The resulting database write is added to the upserts or deletes.
+     *
+     * @return True if the report set changed.
+     */
+    private boolean applyDocument(Set<String> ids, QueryDocumentSnapshot document, long now,
+                                  List<Map<String, Object>> upserts, List<String> deletes) {
+        String id = document.getId();
+        Map<String, Object> report = ReportDatabase.fromDocument(document);
+        if (ValidityIndex.reportEndOf(report, now) <= now) {
+            ids.remove(id);
+            deletes.add(id);
+            return removeIfUnreferenced(id);
+        }
+        ids.add(id);
+        reports.put(id, report);
+        upserts.add(report);
+        return true;
+    }
+
+    /**
+     * Forgets the reports of a range that is no longer synced.
+     *
+     * @return True if the report set changed.
+     */
+    private boolean dropPrefix(String prefix) {
+        Set<String> ids = idsByPrefix.remove(prefix);
+        if (ids == null) {
+            return false;
+        }
+        boolean changed = false;
+        for (String id : ids) {
+            changed |= removeIfUnreferenced(id);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes a report unless another synced range still delivers it.
+     *
+     * @return True if the report was removed.
+     */
+    private boolean removeIfUnreferenced(String id) {
+        for (Set<String> ids : idsByPrefix.values()) {
+            if (ids.contains(id)) {
+                return false;
+            }
+        }
+        return reports.remove(id) != null;
+    }
+
+    /**
+     * Hands a copy of the report set to the listener, once every synced range has delivered
+     * its first snapshot. Until then the change is only noted.
+     */
+    private void publish() {
+        unpublishedChanges = true;
+        if (!idsByPrefix.keySet().containsAll(activePrefixes)) {
+            return;
+        }
+        unpublishedChanges = false;
+        listener.onReportsChanged(new ArrayList<>(reports.values()));
+    }
+}
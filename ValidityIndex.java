@@ -0,0 +1,426 @@
+package com.example.myapplication;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * ValidityIndex answers which items are active at a given time, where every item is valid
+ * over a half-open interval [start, end). Bounded intervals are stored in a centered interval
+ * tree, so a query costs O(log n + k) for k active items; items valid at all times are kept
+ * apart and are always active, and items whose end is not after their start are never active.
+ * The index also returns the next time at which the active set changes, so callers can
+ * re-evaluate on a timer instead of polling.
+ * Immutable and safe to share between threads.
+ */
+public final class ValidityIndex {
+    /**
+     * Start of an interval that has been valid since forever.
+     */
+    public static final long UNBOUNDED_START = Long.MIN_VALUE;
+
+    /**
+     * End of an interval that never expires.
+     */
+    public static final long UNBOUNDED_END = Long.MAX_VALUE;
+
+    /**
+     * Item fields holding the start of an official item's validity, in order of preference.
+     */
+    private static final String[] START_KEYS = {"overallStartTime", "startTime", "startDate"};
+
+    /**
+     * Item fields holding the end of an official item's validity, in order of preference.
+     */
+    private static final String[] END_KEYS = {"overallEndTime", "endTime", "endDate"};
+
+    /**
+     * Date formats accepted for item times. Parsed in UTC unless the value has an offset.
+     */
+    private static final String[] DATE_PATTERNS = {
+            "yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+            "yyyy-MM-dd'T'HH:mm:ssXXX",
+            "yyyy-MM-dd'T'HH:mm:ss",
+            "yyyy-MM-dd HH:mm:ss",
+            "yyyy-MM-dd"
+    };
+
+    /**
+     * Per-thread date parsers, since SimpleDateFormat is not thread-safe.
+     */
+    private static final ThreadLocal<SimpleDateFormat[]> DATE_FORMATS = new ThreadLocal<SimpleDateFormat[]>() {
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            SimpleDateFormat[] formats = new SimpleDateFormat[DATE_PATTERNS.length];
+            for (int i = 0; i < formats.length; i++) {
+                formats[i] = new SimpleDateFormat(DATE_PATTERNS[i], Locale.US);
+                formats[i].setTimeZone(TimeZone.getTimeZone("UTC"));
+                formats[i].setLenient(false);
+            }
+            return formats;
+        }
+    };
+
+    /**
+     * Lifetime of a user report after its latest submission, in milliseconds.
+     */
+    public static final long REPORT_TTL_MS = 2 * 60 * 60 * 1000L;
+
+    /**
+     * Lifetime of a user-reported event after its latest submission, in milliseconds.
+     */
+    public static final long EVENT_REPORT_TTL_MS = 6 * 60 * 60 * 1000L;
+
+    /**
+     * Longest lifetime of any user report, in milliseconds.
+     */
+    public static final long MAX_REPORT_TTL_MS = Math.max(REPORT_TTL_MS, EVENT_REPORT_TTL_MS);
+
+    /**
+     * An index without items.
+     */
+    public static final ValidityIndex EMPTY = new ValidityIndex(new long[0], new long[0]);
+
+    /**
+     * A node of the centered interval tree, holding the intervals that contain its center.
+     */
+    private static final class Node {
+        /** The point every interval of this node contains. */
+        final long center;
+
+        /** Ids of this node's intervals, by ascending start. */
+        final int[] byStart;
+
+        /** Ids of this node's intervals, by descending end. */
+        final int[] byEnd;
+
+        /** Subtree of the intervals ending at or before the center. */
+        Node left;
+
+        /** Subtree of the intervals starting after the center. */
+        Node right;
+
+        Node(long center, int[] byStart, int[] byEnd) {
+            this.center = center;
+            this.byStart = byStart;
+            this.byEnd = byEnd;
+        }
+    }
+
+    /**
+     * Start of each item's interval.
+     */
+    private final long[] starts;
+
+    /**
+     * End of each item's interval.
+     */
+    private final long[] ends;
+
+    /**
+     * Ids of the items valid at all times.
+     */
+    private final int[] alwaysActive;
+
+    /**
+     * Root of the interval tree over the bounded items, or null if there are none.
+     */
+    private final Node root;
+
+    /**
+     * Finite interval starts in ascending order, used to find the next change.
+     */
+    private final long[] sortedStarts;
+
+    /**
+     * Finite interval ends in ascending order, used to find the next change.
+     */
+    private final long[] sortedEnds;
+
+    /**
+     * Constructs a new ValidityIndex. Item ids are the positions in the arrays.
+     *
+     * @param starts The start of each item's interval, or {@link #UNBOUNDED_START}.
+     * @param ends The end of each item's interval, or {@link #UNBOUNDED_END}.
+     */
+    public ValidityIndex(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        int[] always = new int[starts.length];
+        int[] bounded = new int[starts.length];
+        int alwaysCount = 0;
+        int boundedCount = 0;
+        int finiteStarts = 0;
+        int finiteEnds = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (ends[i] <= starts[i]) {
+                continue;
+            }
+            if (starts[i] == UNBOUNDED_START && ends[i] == UNBOUNDED_END) {
+                always[alwaysCount++] = i;
+            } else {
+                bounded[boundedCount++] = i;
+            }
+            if (starts[i] != UNBOUNDED_START) {
+                finiteStarts++;
+            }
+            if (ends[i] != UNBOUNDED_END) {
+                finiteEnds++;
+            }
+        }
+        alwaysActive = Arrays.copyOf(always, alwaysCount);
+        root = build(Arrays.copyOf(bounded, boundedCount));
+
+        sortedStarts = new long[finiteStarts];
+        sortedEnds = new long[finiteEnds];
+        int s = 0;
+        int e = 0;
+        for (int i = 0; i < starts.length; i++) {
+            if (ends[i] <= starts[i]) {
+                continue;
+            }
+            if (starts[i] != UNBOUNDED_START) {
+                sortedStarts[s++] = starts[i];
+            }
+            if (ends[i] != UNBOUNDED_END) {
+                sortedEnds[e++] = ends[i];
+            }
+        }
+        Arrays.sort(sortedStarts);
+        Arrays.sort(sortedEnds);
+    }
+
+    /**
+     * Builds an index over user reports. A report is valid until a lifetime depending on its
+     * type has passed since its timestamp; a merged report's timestamp is that of its latest
+     * member. Reports are never treated as not yet valid, so a device clock running ahead
+     * cannot hide them.
+     *
+     * @param reports The user reports.
+     * @return The validity index, with report positions as ids.
+     */
+    public static ValidityIndex ofReports(List<Map<String, Object>> reports) {
+        long now = System.currentTimeMillis();
+        long[] starts = new long[reports.size()];
+        long[] ends = new long[reports.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = UNBOUNDED_START;
+            ends[i] = reportEndOf(reports.get(i), now);
+        }
+        return new ValidityIndex(starts, ends);
+    }
+
+    /**
+     * Returns when a user report expires: its lifetime after its timestamp, or after the given
+     * time if it has no timestamp yet.
+     *
+     * @param report The user report.
+     * @param now The current time in milliseconds.
+     * @return The expiry time in milliseconds.
+     */
+    public static long reportEndOf(Map<String, Object> report, long now) {
+        Object timestamp = report.get("timestamp");
+        long submitted = timestamp instanceof Number ? ((Number) timestamp).longValue() : now;
+        boolean event = "event".equalsIgnoreCase(String.valueOf(report.get("type")));
+        return submitted + (event ? EVENT_REPORT_TTL_MS : REPORT_TTL_MS);
+    }
+
+    /**
+     * Returns the start of an official item's validity, read from the first known start field.
+     *
+     * @param item The item.
+     * @return The start time in milliseconds, or {@link #UNBOUNDED_START} if the item has none.
+     */
+    public static long startOf(Map<String, Object> item) {
+        Long time = readTime(item, START_KEYS);
+        return time != null ? time : UNBOUNDED_START;
+    }
+
+    /**
+     * Returns the end of an official item's validity, read from the first known end field.
+     *
+     * @param item The item.
+     * @return The end time in milliseconds, or {@link #UNBOUNDED_END} if the item has none.
+     */
+    public static long endOf(Map<String, Object> item) {
+        Long time = readTime(item, END_KEYS);
+        return time != null ? time : UNBOUNDED_END;
+    }
+
+    /**
+     * Returns the ids of the items active at the given time.
+     *
+     * @param time The time in milliseconds.
+     * @return A set with the bit of every active item set.
+     */
+    public BitSet activeAt(long time) {
+        BitSet active = new BitSet(starts.length);
+        for (int id : alwaysActive) {
+            active.set(id);
+        }
+        Node node = root;
+        while (node != null) {
+            if (time < node.center) {
+                for (int id : node.byStart) {
+                    if (starts[id] > time) {
+                        break;
+                    }
+                    active.set(id);
+                }
+                node = node.left;
+            } else {
+                for (int id : node.byEnd) {
+                    if (ends[id] <= time) {
+                        break;
+                    }
+                    active.set(id);
+                }
+                node = node.right;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Returns whether every item is valid at all times, so the active set never changes.
+     *
+     * @return True if the index has no bounded intervals.
+     */
+    public boolean isStatic() {
+        return root == null;
+    }
+
+    /**
+     * Returns the first time after the given time at which an item starts or expires.
+     *
+     * @param time The time in milliseconds.
+     * @return The time of the next change, or {@link #UNBOUNDED_END} if nothing changes.
+     */
+    public long nextChangeAfter(long time) {
+        return Math.min(firstAfter(sortedStarts, time), firstAfter(sortedEnds, time));
+    }
+
+    /**
+     * Returns the number of items in the index.
+     *
+     * @return The item count.
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the first value in the sorted array greater than the given time.
+     */
+    private static long firstAfter(long[] sorted, long time) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < sorted.length ? sorted[low] : UNBOUNDED_END;
+    }
+
+    /**
+     * Builds the interval tree over the given bounded intervals. The center is the median of a
+     * point inside each interval, so every node holds at least one interval.
+     */
+    private Node build(int[] ids) {
+        if (ids.length == 0) {
+            return null;
+        }
+        long[] points = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            points[i] = pointInside(ids[i]);
+        }
+        Arrays.sort(points);
+        long center = points[points.length / 2];
+
+        List<Integer> here = new ArrayList<>();
+        int[] left = new int[ids.length];
+        int[] right = new int[ids.length];
+        int leftCount = 0;
+        int rightCount = 0;
+        for (int id : ids) {
+            if (ends[id] <= center) {
+                left[leftCount++] = id;
+            } else if (starts[id] > center) {
+                right[rightCount++] = id;
+            } else {
+                here.add(id);
+            }
+        }
+
+        Integer[] byStart = here.toArray(new Integer[0]);
+        Integer[] byEnd = here.toArray(new Integer[0]);
+        Arrays.sort(byStart, (a, b) -> Long.compare(starts[a], starts[b]));
+        Arrays.sort(byEnd, (a, b) -> Long.compare(ends[b], ends[a]));
+        Node node = new Node(center, unbox(byStart), unbox(byEnd));
+        node.left = build(Arrays.copyOf(left, leftCount));
+        node.right = build(Arrays.copyOf(right, rightCount));
+        return node;
+    }
+
+    /**
+     * Returns a time inside an item's interval.
+     */
+    private long pointInside(int id) {
+        return starts[id] != UNBOUNDED_START ? starts[id] : ends[id] - 1;
+    }
+
+    /**
+     * Converts boxed ids to an int array.
+     */
+    private static int[] unbox(Integer[] ids) {
+        int[] result = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = ids[i];
+        }
+        return result;
+    }
+
+    /**
+     * Reads the first parseable time among the given item fields.
+     */
+    private static Long readTime(Map<String, Object> item, String[] keys) {
+        for (String key : keys) {
+            Long time = parseTime(item.get(key));
+            if (time != null) {
+                return time;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a time given as epoch milliseconds or as an ISO-8601 style date string.
+     */
+    private static Long parseTime(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (!(value instanceof String) || ((String) value).isEmpty()) {
+            return null;
+        }
+        String text = ((String) value).replace("Z", "+00:00");
+        for (SimpleDateFormat format : DATE_FORMATS.get()) {
+            try {
+                return format.parse(text).getTime();
+            } catch (ParseException e) {
+                // Try the next pattern
+            }
+        }
+        return null;
+    }
+}